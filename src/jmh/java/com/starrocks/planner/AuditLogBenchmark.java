@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audit record splitting and parsing, the per record cost of `--benchmark` and diff mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditLogBenchmark {
+    @Param({"100000"})
+    public int records;
+
+    @Param({"100", "10000"})
+    public int digests;
+
+    private byte[] auditLog;
+
+    private String[] auditRecords;
+
+    // the Stmt= text of the records, as the digests are computed on it
+    private String[] sqls;
+
+    @Setup
+    public void setup() throws IOException {
+        auditLog = SyntheticData.auditLog(records, digests, 42);
+
+        List<String> list = new ArrayList<>();
+        try (AuditLogReader reader = new AuditLogReader(new ByteArrayInputStream(auditLog))) {
+            String record;
+            while ((record = reader.next()) != null) {
+                list.add(record);
+            }
+        }
+        auditRecords = list.toArray(new String[0]);
+
+        List<String> sqlList = new ArrayList<>();
+        for (String record : auditRecords) {
+            Optional<Pair<String, String>> sql = NewPlannerTest.getSQL(record);
+            sql.ifPresent(p -> sqlList.add(p.getRight()));
+        }
+        sqls = sqlList.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void splitRecords(Blackhole bh) throws IOException {
+        try (AuditLogReader reader = new AuditLogReader(new ByteArrayInputStream(auditLog))) {
+            String record;
+            while ((record = reader.next()) != null) {
+                bh.consume(record);
+            }
+        }
+    }
+
+    @Benchmark
+    public void getSQL(Blackhole bh) {
+        for (String record : auditRecords) {
+            bh.consume(NewPlannerTest.getSQL(record));
+        }
+    }
+
+    @Benchmark
+    public void sqlDigest(Blackhole bh) {
+        for (String sql : sqls) {
+            bh.consume(SqlDigest.digest(sql));
+        }
+    }
+
+    @Benchmark
+    public void sqlHash64(Blackhole bh) {
+        for (String sql : sqls) {
+            bh.consume(SqlDigest.hash64(sql));
+        }
+    }
+
+    @Benchmark
+    public DigestTable refresh() {
+        DigestTable table = new DigestTable();
+        for (String record : auditRecords) {
+            BenchmarkTest.refresh(table, record, null, 0, 1);
+        }
+        return table;
+    }
+}
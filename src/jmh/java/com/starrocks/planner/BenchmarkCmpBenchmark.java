@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge of two `--benchmark` outputs by `--cmp`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BenchmarkCmpBenchmark {
+    @Param({"10000", "1000000"})
+    public int digests;
+
+    private File oldFile;
+
+    private File newFile;
+
+    private final PrintStream out = new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM);
+
+    @Setup
+    public void setup() throws IOException {
+        oldFile = File.createTempFile("old_benchmark", ".txt");
+        newFile = File.createTempFile("new_benchmark", ".txt");
+        FileUtils.writeStringToFile(oldFile, SyntheticData.benchmarkFile(digests, 1), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(newFile, SyntheticData.benchmarkFile(digests, 2), StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteQuietly(oldFile);
+        FileUtils.deleteQuietly(newFile);
+    }
+
+    @Benchmark
+    public void cmp() throws IOException {
+        BenchmarkCmp.cmp(oldFile.getPath(), newFile.getPath(), out);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.assertion.DbUnitAssert;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.SortedTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result comparison of SQLDiffer: sort both results and compare them cell by cell, and the row diff of a wrong
+ * result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultCompareBenchmark {
+    private static final DbUnitAssert EQUALS_INSTANCE = new StarrocksUnitAssert();
+
+    @Param({"100", "10000", "100000"})
+    public int rows;
+
+    @Param({"int", "varchar", "double", "mixed"})
+    public String type;
+
+    private ITable oldData;
+
+    private ITable newData;
+
+    @Setup
+    public void setup() throws Exception {
+        oldData = SyntheticData.table(type, rows, 7);
+        newData = SyntheticData.table(type, rows, 7);
+    }
+
+    @Benchmark
+    public void sortAndCompare() throws DatabaseUnitException {
+        ITable sortedExpected = new SortedTable(newData, newData.getTableMetaData().getColumns());
+        ITable sortedActual = new SortedTable(oldData, oldData.getTableMetaData().getColumns());
+        EQUALS_INSTANCE.assertEquals(sortedExpected, sortedActual);
+    }
+
+    @Benchmark
+    public String rowDiff() throws DataSetException {
+        return new RowDiff(oldData, newData).getSummary();
+    }
+
+    @Benchmark
+    public String formatData() {
+        return SQLDiffer.formatData(oldData, 0, Math.min(oldData.getRowCount(), 1000));
+    }
+}
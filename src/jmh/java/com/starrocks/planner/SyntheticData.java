@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.datatype.DataType;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Deterministic audit logs, benchmark files and result sets for the micro benchmarks, no cluster needed.
+ */
+final class SyntheticData {
+    private static final String[] TABLES = {"lineitem", "orders", "customer", "part", "supplier", "nation"};
+
+    private SyntheticData() {
+    }
+
+    static String sql(Random random, int template) {
+        String table = TABLES[template % TABLES.length];
+        switch (template % 4) {
+            case 0:
+                return "select * from " + table + " where id = " + random.nextInt(100000);
+            case 1:
+                return "select k1, count(*) from " + table + " where dt >= '2021-0" + (1 + random.nextInt(9))
+                        + "-01' group by k1 order by k1 limit " + (10 + random.nextInt(90));
+            case 2:
+                return "select a.k1, sum(b.v" + template + ") from " + table + " a join orders b on a.id = b.id"
+                        + " where a.k2 in (" + random.nextInt(100) + ", " + random.nextInt(100) + ", "
+                        + random.nextInt(100) + ") group by a.k1";
+            default:
+                return "select k1,\n    max(v1),\n    min(v2)\nfrom " + table + "\nwhere k3 = 'v" + random.nextInt(1000)
+                        + "'\ngroup by k1";
+        }
+    }
+
+    /**
+     * fe.audit.log with `records` queries of `templates` different digests, multi-line statements included
+     */
+    static byte[] auditLog(int records, int templates, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(records * 320);
+        for (int i = 0; i < records; i++) {
+            int template = random.nextInt(templates);
+            boolean isQuery = random.nextInt(20) != 0;
+            String state = random.nextInt(50) == 0 ? "ERR" : "EOF";
+            sb.append("2021-09-01 ").append(String.format("%02d:%02d:%02d,%03d", 8 + i / 360000 % 16,
+                    i / 6000 % 60, i / 100 % 60, i % 1000));
+            sb.append(" [query] |Client=10.0.0.").append(random.nextInt(255)).append(":").append(30000 + i % 1000);
+            sb.append("|User=root|Db=default_cluster:tpch|State=").append(state);
+            sb.append("|Time=").append(1 + random.nextInt(5000));
+            sb.append("|ScanBytes=").append(random.nextInt(1 << 20));
+            sb.append("|ScanRows=").append(random.nextInt(1 << 16));
+            sb.append("|ReturnRows=").append(random.nextInt(1000));
+            sb.append("|StmtId=").append(i);
+            sb.append("|QueryId=").append(new UUID(seed, i));
+            sb.append("|IsQuery=").append(isQuery);
+            sb.append("|feIp=10.0.0.1");
+            sb.append("|Stmt=").append(sql(random, template));
+            sb.append("|Digest=").append(String.format("%032x", template * 2654435761L));
+            sb.append("\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Output of `--benchmark` with `digests` digests, not sorted by digest
+     */
+    static String benchmarkFile(int digests, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(digests * 64);
+        sb.append("SQL DIGEST\t\t\tSQL count\tMax time(ms)\tMin time(ms)\tAvg Time(ms)\tP50(ms)\tP90(ms)\tP99(ms)"
+                + "\tStd(ms)\n");
+        for (int i = 0; i < digests; i++) {
+            long min = 1 + random.nextInt(100);
+            long max = min + random.nextInt(10000);
+            long avg = min + (max - min) / 3;
+            sb.append(String.format("%032x", i * 2654435761L)).append("\t")
+                    .append(1 + random.nextInt(10000)).append("\t")
+                    .append(max).append("\t")
+                    .append(min).append("\t")
+                    .append(avg).append("\t")
+                    .append(avg).append("\t")
+                    .append(min + (max - min) * 9 / 10).append("\t")
+                    .append(max).append("\t")
+                    .append((max - min) / 4).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Result set with 4 columns of `type` (int, varchar, double or mixed), shuffled rows
+     */
+    static DefaultTable table(String type, int rows, long seed) throws DataSetException {
+        Column[] columns = new Column[4];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column("c" + i, dataType(type, i));
+        }
+
+        Random random = new Random(seed);
+        DefaultTable table = new DefaultTable("RESULT", columns);
+        for (int r = 0; r < rows; r++) {
+            Object[] row = new Object[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                row[c] = value(columns[c].getDataType(), random);
+            }
+            table.addRow(row);
+        }
+        return table;
+    }
+
+    private static DataType dataType(String type, int column) {
+        switch (type) {
+            case "int":
+                return DataType.BIGINT;
+            case "varchar":
+                return DataType.VARCHAR;
+            case "double":
+                return DataType.DOUBLE;
+            default:
+                DataType[] mixed = {DataType.BIGINT, DataType.VARCHAR, DataType.DOUBLE, DataType.DATE};
+                return mixed[column % mixed.length];
+        }
+    }
+
+    private static Object value(DataType type, Random random) {
+        if (type == DataType.BIGINT) {
+            return (long) random.nextInt(1000);
+        } else if (type == DataType.DOUBLE) {
+            return random.nextInt(1000) / 7.0;
+        } else if (type == DataType.DATE) {
+            return new Date(Date.valueOf("2021-01-01").getTime() + random.nextInt(1000) * 86400000L);
+        }
+        return "value_" + random.nextInt(1000);
+    }
+}
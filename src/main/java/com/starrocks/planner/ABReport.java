@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Latency of the A/B mode: cluster A is the old side, cluster B the new side.
+ *
+ * `ab_queries.tsv` has the latency of both clusters per query. `ab_a.txt` and `ab_b.txt` are the per digest
+ * latencies in the `--benchmark` format, and `ab_cmp.txt` is their `--cmp` report.
+ */
+public class ABReport {
+    private static final Logger LOGGER = LogManager.getLogger(ABReport.class);
+
+    private final Map<String, BenchmarkTest.TimeAndCount> clusterA = new HashMap<>();
+    private final Map<String, BenchmarkTest.TimeAndCount> clusterB = new HashMap<>();
+    private final BufferedWriter queries;
+
+    private long totalA = 0;
+    private long totalB = 0;
+
+    public ABReport() throws IOException {
+        queries = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/ab_queries.tsv"));
+        queries.write("Line" + "\t" + "SQL DIGEST" + "\t" + "A(ms)" + "\t" + "B(ms)" + "\t" + "Delta(ms)" + "\t"
+                + "Type" + "\t" + "Cache");
+        queries.newLine();
+    }
+
+    /**
+     * Queries which failed on a side have no latency and are skipped
+     */
+    public synchronized void record(long line, String sql, SQLog log) throws IOException {
+        long a = log.getOldTime();
+        long b = log.getNewTime();
+        if (a < 0 || b < 0) {
+            return;
+        }
+
+        String digest = SqlDigest.digest(sql);
+        clusterA.computeIfAbsent(digest, k -> new BenchmarkTest.TimeAndCount()).touch(a);
+        clusterB.computeIfAbsent(digest, k -> new BenchmarkTest.TimeAndCount()).touch(b);
+        totalA += a;
+        totalB += b;
+
+        queries.write(line + "\t" + digest + "\t" + a + "\t" + b + "\t" + (b - a) + "\t" + log.getType() + "\t"
+                + log.getCacheMode());
+        queries.newLine();
+    }
+
+    public synchronized void write() throws IOException {
+        queries.close();
+
+        String fileA = Config.OUTPUT_DIR + "/ab_a.txt";
+        String fileB = Config.OUTPUT_DIR + "/ab_b.txt";
+        try (PrintStream out = new PrintStream(new FileOutputStream(fileA))) {
+            BenchmarkTest.print(clusterA, false, CacheControl.abName(), out);
+        }
+        try (PrintStream out = new PrintStream(new FileOutputStream(fileB))) {
+            BenchmarkTest.print(clusterB, false, CacheControl.abName(), out);
+        }
+        try (PrintStream out = new PrintStream(new FileOutputStream(Config.OUTPUT_DIR + "/ab_cmp.txt"))) {
+            BenchmarkCmp.cmp(fileA, fileB, out);
+        }
+
+        LOGGER.info("A/B latency of {} digests, total A: {}ms, B: {}ms, change: {}", clusterA.size(), totalA, totalB,
+                totalA == 0 ? "-" : String.format("%.2f%%", (totalB - totalA) * 100.0 / totalA));
+    }
+}
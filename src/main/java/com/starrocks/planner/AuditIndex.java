@@ -0,0 +1,438 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Sidecar index of an audit log, `{audit log}.idx`, written once by `-index`: per record the byte offset and
+ * length, line, timestamp, flags, latency, db, digest and the hash of the sql. `--benchmark` aggregates from the
+ * index without reading the audit log, the diff mode filters and samples on it and reads only the records it
+ * replays.
+ *
+ * The index is used only while the audit log has the length and the modification time it was built for.
+ * Layout: header, fixed size entries, db and digest dictionaries, trailer with the dictionary offset.
+ */
+public class AuditIndex implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger(AuditIndex.class);
+
+    static final String SUFFIX = ".idx";
+
+    // "CBOI"
+    private static final int MAGIC = 0x43424f49;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+    private static final int TRAILER_SIZE = 8 + 8;
+
+    static final int QUERY = 1;
+    // State=ERR
+    static final int ERROR = 2;
+    // a query the diff mode replays, see NewPlannerTest.getSQL
+    static final int DIFFABLE = 4;
+    // NewPlannerTest.inReplayWindow
+    static final int IN_WINDOW = 8;
+
+    /**
+     * One record, reused by {@link Cursor#next}
+     */
+    static class Entry {
+        long offset;
+        int length;
+        int line;
+        // epoch ms, -1 if the record has no valid time
+        long timestamp;
+        int flags;
+        // latency in ms
+        long time;
+        int db;
+        // -1 if the record has no digest, not a successful query
+        int digest;
+        // SqlDigest.hash64 of the sql of a DIFFABLE record
+        long sqlHash;
+
+        boolean is(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(offset);
+            out.writeInt(length);
+            out.writeInt(line);
+            out.writeLong(timestamp);
+            out.writeByte(flags);
+            out.writeLong(time);
+            out.writeInt(db);
+            out.writeInt(digest);
+            out.writeLong(sqlHash);
+        }
+
+        void read(DataInputStream in) throws IOException {
+            offset = in.readLong();
+            length = in.readInt();
+            line = in.readInt();
+            timestamp = in.readLong();
+            flags = in.readUnsignedByte();
+            time = in.readLong();
+            db = in.readInt();
+            digest = in.readInt();
+            sqlHash = in.readLong();
+        }
+    }
+
+    private static final int ENTRY_SIZE = 8 + 4 + 4 + 8 + 1 + 8 + 4 + 4 + 8;
+
+    private final String path;
+    private final long count;
+    private final String[] dbs;
+    private final String[] digests;
+    private final FileChannel auditLog;
+
+    private AuditIndex(String path, long count, String[] dbs, String[] digests) throws IOException {
+        this.path = path;
+        this.count = count;
+        this.dbs = dbs;
+        this.digests = digests;
+        this.auditLog = new RandomAccessFile(path, "r").getChannel();
+    }
+
+    static String indexPath(String auditLog) {
+        return auditLog + SUFFIX;
+    }
+
+    /**
+     * Read the audit log once and write its index
+     */
+    public static void build(String path) throws IOException {
+        File auditFile = new File(path);
+        File indexFile = new File(indexPath(path));
+        // db and digest dictionaries, the entry number of the table is the id
+        DigestTable dbIds = new DigestTable();
+        DigestTable digestIds = new DigestTable();
+        long count = 0;
+        long dictionaryOffset;
+
+        try (AuditLogReader reader = new AuditLogReader(path);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(indexFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(auditFile.length());
+            out.writeLong(auditFile.lastModified());
+
+            Entry previous = null;
+            String auditLog;
+            while ((auditLog = reader.next()) != null) {
+                Entry entry = parse(auditLog, dbIds, digestIds);
+                entry.offset = reader.getRecordOffset();
+                entry.line = reader.getRecordLine();
+                if (previous != null) {
+                    previous.length = (int) (entry.offset - previous.offset);
+                    previous.write(out);
+                }
+                previous = entry;
+                count++;
+                if (count % 1000000 == 0) {
+                    LOGGER.info("indexed {} records", count);
+                }
+            }
+            if (previous != null) {
+                previous.length = (int) (auditFile.length() - previous.offset);
+                previous.write(out);
+            }
+
+            dictionaryOffset = out.size();
+            writeDictionary(out, dbIds);
+            writeDictionary(out, digestIds);
+            out.writeLong(dictionaryOffset);
+            out.writeLong(count);
+        }
+        if (auditFile.length() != readLong(indexFile, 8) || auditFile.lastModified() != readLong(indexFile, 16)) {
+            LOGGER.warn("{} changed while indexing, the index will not be used", path);
+        }
+        LOGGER.info("index of {} records, {} digests written to {}", count, digestIds.size(), indexFile);
+    }
+
+    private static Entry parse(String auditLog, DigestTable dbIds, DigestTable digestIds) {
+        Entry entry = new Entry();
+        entry.timestamp = auditLog.length() >= 19 ? BenchmarkSnapshot.parseTime(auditLog.substring(0, 19)) : -1;
+        entry.digest = -1;
+        String[] strings = auditLog.split("\\|");
+        if (strings.length < 14) {
+            return entry;
+        }
+
+        try {
+            if (Boolean.parseBoolean(strings[11].split("=")[1])) {
+                entry.flags |= QUERY;
+            }
+            if (strings[4].equals("State=ERR")) {
+                entry.flags |= ERROR;
+            }
+            entry.time = Long.parseLong(strings[5].split("Time=")[1]);
+            entry.db = dbIds.add(strings[3].substring(strings[3].indexOf('=') + 1));
+
+            // the digest of BenchmarkTest.refresh
+            if (entry.is(QUERY) && !entry.is(ERROR)) {
+                String digest = "";
+                if (strings.length > 14 && strings[14].split("Digest=").length > 1) {
+                    digest = strings[14].split("Digest=")[1];
+                }
+                if (digest.trim().isEmpty()) {
+                    String[] stmt = strings[13].split("Stmt=");
+                    digest = stmt.length < 2 ? null : SqlDigest.digest(stmt[1]);
+                }
+                entry.digest = digest == null ? -1 : digestIds.add(digest);
+            }
+
+            Optional<Pair<String, String>> sql = NewPlannerTest.getSQL(auditLog);
+            if (sql.isPresent()) {
+                entry.flags |= DIFFABLE;
+                entry.sqlHash = SqlDigest.hash64(sql.get().getRight());
+                if (NewPlannerTest.inReplayWindow(auditLog)) {
+                    entry.flags |= IN_WINDOW;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.debug("malformed audit record: {}", auditLog, e);
+        }
+        return entry;
+    }
+
+    /**
+     * @return the index of the audit log, null if there is none or the audit log changed since it was built
+     */
+    static AuditIndex open(String path) throws IOException {
+        File auditFile = new File(path);
+        File indexFile = new File(indexPath(path));
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+            if (file.length() < HEADER_SIZE + TRAILER_SIZE || file.readInt() != MAGIC || file.readInt() != VERSION) {
+                LOGGER.warn("{} is not an audit index of this version, rebuild it with -index", indexFile);
+                return null;
+            }
+            if (file.readLong() != auditFile.length() || file.readLong() != auditFile.lastModified()) {
+                LOGGER.warn("{} changed since {} was built, rebuild it with -index", path, indexFile);
+                return null;
+            }
+
+            file.seek(file.length() - TRAILER_SIZE);
+            long dictionaryOffset = file.readLong();
+            long count = file.readLong();
+            if (dictionaryOffset != HEADER_SIZE + count * ENTRY_SIZE) {
+                LOGGER.warn("{} is truncated, rebuild it with -index", indexFile);
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile), 1 << 16))) {
+                skipFully(in, dictionaryOffset);
+                String[] dbs = readDictionary(in);
+                String[] digests = readDictionary(in);
+                // not info, the -benchmark table is on stdout
+                LOGGER.debug("use {}: {} records, {} digests", indexFile, count, digests.length);
+                return new AuditIndex(path, count, dbs, digests);
+            }
+        }
+    }
+
+    long size() {
+        return count;
+    }
+
+    String db(int id) {
+        return dbs[id];
+    }
+
+    String digest(int id) {
+        return digests[id];
+    }
+
+    int digestCount() {
+        return digests.length;
+    }
+
+    /**
+     * @return the entries in file order
+     */
+    Cursor cursor() throws IOException {
+        return new Cursor();
+    }
+
+    class Cursor implements Closeable {
+        private final DataInputStream in;
+        private long read = 0;
+
+        private Cursor() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexPath(path)), 1 << 16));
+            skipFully(in, HEADER_SIZE);
+        }
+
+        /**
+         * @return false at the end
+         */
+        boolean next(Entry entry) throws IOException {
+            if (read >= count) {
+                return false;
+            }
+            entry.read(in);
+            read++;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * @param filter records it rejects are skipped without reading the audit log
+     */
+    AuditSource source(Predicate<Entry> filter) throws IOException {
+        Cursor cursor = cursor();
+        return new AuditSource() {
+            private final Entry entry = new Entry();
+            private long rangeStart = 0;
+
+            @Override
+            public String next() throws IOException {
+                while (cursor.next(entry)) {
+                    if (entry.offset >= rangeStart && filter.test(entry)) {
+                        return read(entry);
+                    }
+                }
+                // no record is left, the position is the end of the file
+                entry.offset = auditLog.size();
+                entry.length = 0;
+                return null;
+            }
+
+            @Override
+            public void skipTo(long offset) {
+                rangeStart = offset;
+            }
+
+            @Override
+            public long getRecordOffset() {
+                return entry.offset;
+            }
+
+            @Override
+            public int getRecordLine() {
+                return entry.line;
+            }
+
+            @Override
+            public long getPosition() {
+                return entry.offset + entry.length;
+            }
+
+            @Override
+            public void close() throws IOException {
+                cursor.close();
+                AuditIndex.this.close();
+            }
+        };
+    }
+
+    /**
+     * @return the record of the entry as returned by {@link AuditLogReader#next}
+     */
+    String read(Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        while (buffer.hasRemaining()) {
+            if (auditLog.read(buffer, entry.offset + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        // lines joined by a blank, without '\r', like AuditLogReader
+        StringBuilder record = new StringBuilder(entry.length);
+        String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end;
+            int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (record.length() > 0) {
+                record.append(' ');
+            }
+            record.append(text, start, lineEnd);
+            start = end + 1;
+        }
+        return record.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        auditLog.close();
+    }
+
+    private static void writeDictionary(DataOutputStream out, DigestTable dictionary) throws IOException {
+        out.writeInt(dictionary.size());
+        for (int i = 0; i < dictionary.size(); i++) {
+            byte[] bytes = dictionary.digestAt(i).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String[] readDictionary(DataInputStream in) throws IOException {
+        String[] dictionary = new String[in.readInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return dictionary;
+    }
+
+    private static void skipFully(DataInputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static long readLong(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(position);
+            return raf.readLong();
+        }
+    }
+}
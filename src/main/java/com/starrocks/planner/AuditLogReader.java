@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Split fe.audit.log into audit records. A record starts with a "query] |Client" line, the following
+ * lines belong to the same record (multi-line sql) and are joined by a blank.
+ *
+ * The reader works on bytes, so the record offset is the real position in the file.
+ */
+public class AuditLogReader implements AuditSource {
+    static final String RECORD_START = "query] |Client";
+
+    private final InputStream in;
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private int pos = 0;
+    private int limit = 0;
+
+    private byte[] lineBuffer = new byte[1024];
+
+    private long position = 0;
+    private long lineOffset = 0;
+    private int lineNum = 0;
+
+    private String pending = null;
+    private long pendingOffset = 0;
+    private int pendingLine = 0;
+
+    private long recordOffset = 0;
+    private int recordLine = 0;
+
+    // after skipTo(), drop the tail of the record which started before the offset
+    private boolean skipContinuation = false;
+
+    public AuditLogReader(InputStream in) {
+        this.in = in;
+    }
+
+    public AuditLogReader(String path) throws IOException {
+        this(new FileInputStream(path));
+    }
+
+    /**
+     * Read again the record at an offset returned by {@link #getRecordOffset}
+     */
+    static String readAt(String path, long offset) throws IOException {
+        try (FileInputStream in = new FileInputStream(path)) {
+            in.getChannel().position(offset);
+            return new AuditLogReader(in).next();
+        }
+    }
+
+    /**
+     * @return next audit record, or null at the end of the file
+     */
+    @Override
+    public String next() throws IOException {
+        StringBuilder record = null;
+        while (true) {
+            if (pending == null) {
+                pending = readLine();
+                if (pending == null) {
+                    break;
+                }
+                pendingOffset = lineOffset;
+                pendingLine = lineNum;
+            }
+
+            if (record != null && pending.contains(RECORD_START)) {
+                return record.toString();
+            }
+
+            if (skipContinuation) {
+                if (!pending.contains(RECORD_START)) {
+                    pending = null;
+                    continue;
+                }
+                skipContinuation = false;
+            }
+
+            if (record == null) {
+                record = new StringBuilder(pending);
+                recordOffset = pendingOffset;
+                recordLine = pendingLine;
+            } else {
+                record.append(' ').append(pending);
+            }
+            pending = null;
+        }
+
+        return record == null ? null : record.toString();
+    }
+
+    /**
+     * Skip to the first record which starts at or after the offset. The skipped bytes are only scanned for line
+     * ends, so line numbers stay right. Call before the first next().
+     */
+    @Override
+    public void skipTo(long offset) throws IOException {
+        if (offset <= position) {
+            return;
+        }
+
+        boolean lineStart = true;
+        while (position < offset) {
+            if (pos >= limit) {
+                limit = in.read(buffer);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return;
+                }
+            }
+
+            int end = (int) Math.min(limit, pos + offset - position);
+            for (int i = pos; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    lineNum++;
+                }
+            }
+            lineStart = buffer[end - 1] == '\n';
+            position += end - pos;
+            pos = end;
+        }
+
+        if (!lineStart) {
+            // the rest of the line at the offset
+            readLine();
+        }
+        skipContinuation = true;
+    }
+
+    /**
+     * Byte offset of the last record returned by next()
+     */
+    @Override
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Line number (1-based) of the last record returned by next()
+     */
+    @Override
+    public int getRecordLine() {
+        return recordLine;
+    }
+
+    /**
+     * Bytes consumed from the input
+     */
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    private String readLine() throws IOException {
+        int length = 0;
+        boolean eof = true;
+        lineOffset = position;
+        while (true) {
+            if (pos >= limit) {
+                limit = in.read(buffer);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    break;
+                }
+            }
+            eof = false;
+
+            int start = pos;
+            while (pos < limit && buffer[pos] != '\n') {
+                pos++;
+            }
+
+            int n = pos - start;
+            if (length + n > lineBuffer.length) {
+                lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, length + n));
+            }
+            System.arraycopy(buffer, start, lineBuffer, length, n);
+            length += n;
+            position += n;
+
+            if (pos < limit) {
+                // skip '\n'
+                pos++;
+                position++;
+                break;
+            }
+        }
+
+        if (eof && length == 0) {
+            return null;
+        }
+
+        lineNum++;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
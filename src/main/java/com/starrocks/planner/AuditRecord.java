@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Fields of one audit record used for timing: the record is logged when the query finishes, so the query
+ * started `Time` ms before the log timestamp.
+ */
+public class AuditRecord {
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss,SSS");
+
+    // log timestamp, epoch ms
+    long timestamp;
+    // original execution time, ms
+    long time;
+    String client = "";
+    String digest = "";
+
+    /**
+     * @return null if the record has no valid timestamp or fields
+     */
+    static AuditRecord parse(String auditLog) {
+        String[] strings = auditLog.split("\\|");
+        if (strings.length < 14 || auditLog.length() < 23) {
+            return null;
+        }
+
+        AuditRecord record = new AuditRecord();
+        try {
+            record.timestamp = LocalDateTime.parse(auditLog.substring(0, 23), DATE_TIME_FORMATTER)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            record.time = Long.parseLong(strings[5].split("Time=")[1].trim());
+        } catch (DateTimeParseException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+
+        if (strings[1].startsWith("Client=")) {
+            record.client = strings[1].substring("Client=".length());
+        }
+        if (strings.length > 14 && strings[14].split("Digest=").length > 1) {
+            record.digest = strings[14].split("Digest=")[1].trim();
+        }
+        if (record.digest.isEmpty()) {
+            String[] stmt = strings[13].split("Stmt=");
+            if (stmt.length > 1) {
+                record.digest = SqlDigest.digest(stmt[1]);
+            }
+        }
+        return record;
+    }
+
+    long getStartTime() {
+        return timestamp - time;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Audit records in file order: read from the audit log by {@link AuditLogReader}, or located by the sidecar
+ * {@link AuditIndex}, which skips the records its filter rejects without reading them.
+ */
+public interface AuditSource extends Closeable {
+    /**
+     * @return next audit record, or null at the end of the file
+     */
+    String next() throws IOException;
+
+    /**
+     * Skip to the first record which starts at or after the offset. Call before the first next().
+     */
+    void skipTo(long offset) throws IOException;
+
+    /**
+     * Byte offset of the last record returned by next()
+     */
+    long getRecordOffset();
+
+    /**
+     * Line number (1-based) of the last record returned by next()
+     */
+    int getRecordLine();
+
+    /**
+     * Bytes of the audit log passed
+     */
+    long getPosition();
+}
@@ -1,53 +1,334 @@
 // This file is licensed under the Elastic License 2.0. Copyright 2021 StarRocks Limited.
 package com.starrocks.planner;
 
-import javafx.util.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
 
+/**
+ * Compare two `--benchmark` outputs with a merge join on the digest, memory is bounded by one line per file.
+ * Unsorted inputs (outputs of old versions) are sorted first by an external merge sort.
+ */
 public class BenchmarkCmp {
+    private static final Logger LOGGER = LogManager.getLogger(BenchmarkCmp.class);
+
+    private static final int SORT_CHUNK_LINES = 500000;
+
+    // two-sided 95% for the welch t-test, and at least 10% of change to be reported
+    private static final double SIGNIFICANT_T = 1.96;
+    private static final double SIGNIFICANT_CHANGE = 0.1;
+
+    private static final java.text.DecimalFormat numberFormat = new java.text.DecimalFormat("0.00");
+
+    static class Row {
+        String digest;
+        long count;
+        long maxTime;
+        long minTime;
+        long avgTime;
+        // -1 if the file is written by an old version without percentiles
+        long p50 = -1;
+        long p90 = -1;
+        long p99 = -1;
+        long std = -1;
+
+        static Row parse(String line) {
+            String[] s = line.split("\t");
+            Row row = new Row();
+            row.digest = s[0];
+            row.count = Long.parseLong(s[1].trim());
+            row.maxTime = Long.parseLong(s[2].trim());
+            row.minTime = Long.parseLong(s[3].trim());
+            row.avgTime = Long.parseLong(s[4].trim());
+            if (s.length >= 9) {
+                row.p50 = Long.parseLong(s[5].trim());
+                row.p90 = Long.parseLong(s[6].trim());
+                row.p99 = Long.parseLong(s[7].trim());
+                row.std = Long.parseLong(s[8].trim());
+            }
+            return row;
+        }
+    }
+
+    private static class Summary {
+        long matched = 0;
+        long regressions = 0;
+        long improvements = 0;
+        long newDigests = 0;
+        long vanishedDigests = 0;
+        // count weighted with the old workload mix
+        double oldTotal = 0;
+        double newTotal = 0;
+        double newOnlyTotal = 0;
+        double vanishedTotal = 0;
+    }
+
     public static void cmp(String logPath1, String logPath2) throws IOException {
-        class TimeCmp {
-            Long t1;
-            Long t2;
+        cmp(logPath1, logPath2, System.out);
+    }
+
+    static void cmp(String logPath1, String logPath2, PrintStream out) throws IOException {
+        File oldFile = sorted(new File(logPath1));
+        File newFile = sorted(new File(logPath2));
+
+        Summary summary = new Summary();
+        try (BufferedReader ob = new BufferedReader(new FileReader(oldFile), 1 << 16);
+                BufferedReader nb = new BufferedReader(new FileReader(newFile), 1 << 16)) {
+            ob.readLine();
+            nb.readLine();
 
-            TimeCmp(Long t1, Long t2) {
-                this.t1 = t1;
-                this.t2 = t2;
+            out.println("SQL DIGEST" + "\t\t\t" + "Original count" + "\t" + "New count" + "\t" + "Original(ms)" + "\t"
+                    + "New(ms)" + "\t" + "Performance boost" + "\t" + "P50 delta(ms)" + "\t" + "P90 delta(ms)" + "\t"
+                    + "P99 delta(ms)" + "\t" + "Flag");
+
+            Row o = next(ob);
+            Row n = next(nb);
+            while (o != null || n != null) {
+                int c = o == null ? 1 : (n == null ? -1 : o.digest.compareTo(n.digest));
+                if (c == 0) {
+                    matched(o, n, summary, out);
+                    o = next(ob);
+                    n = next(nb);
+                } else if (c < 0) {
+                    summary.vanishedDigests++;
+                    summary.vanishedTotal += (double) o.count * o.avgTime;
+                    out.println(o.digest + "\t" + o.count + "\t-\t" + o.avgTime + "\t-\t-\t-\t-\t-\tVANISHED");
+                    o = next(ob);
+                } else {
+                    summary.newDigests++;
+                    summary.newOnlyTotal += (double) n.count * n.avgTime;
+                    out.println(n.digest + "\t-\t" + n.count + "\t-\t" + n.avgTime + "\t-\t-\t-\t-\tNEW");
+                    n = next(nb);
+                }
+            }
+        } finally {
+            if (!oldFile.getPath().equals(logPath1)) {
+                oldFile.delete();
+            }
+            if (!newFile.getPath().equals(logPath2)) {
+                newFile.delete();
             }
         }
 
-        Map<String, TimeCmp> cmp = new HashMap<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(logPath1))) {
-            br.readLine();
+        out.println();
+        out.println("Matched digests: " + summary.matched
+                + ", significant regressions: " + summary.regressions
+                + ", significant improvements: " + summary.improvements);
+        out.println("New digests: " + summary.newDigests + ", total time " + (long) summary.newOnlyTotal + "ms");
+        out.println("Vanished digests: " + summary.vanishedDigests + ", total time " + (long) summary.vanishedTotal
+                + "ms");
+        out.println("Total time of matched digests with the original query mix, original: " + (long) summary.oldTotal
+                + "ms, new: " + (long) summary.newTotal + "ms, change: "
+                + (summary.oldTotal == 0 ? "-" : numberFormat.format(
+                (summary.newTotal - summary.oldTotal) * 100 / summary.oldTotal) + "%"));
+    }
+
+    private static void matched(Row o, Row n, Summary summary, PrintStream out) {
+        summary.matched++;
+        summary.oldTotal += (double) o.count * o.avgTime;
+        summary.newTotal += (double) o.count * n.avgTime;
+
+        String flag = "";
+        int significant = significant(o, n);
+        if (significant > 0) {
+            summary.regressions++;
+            flag = "REGRESSION";
+        } else if (significant < 0) {
+            summary.improvements++;
+            flag = "IMPROVEMENT";
+        }
+
+        out.println(o.digest + "\t"
+                + o.count + "\t"
+                + n.count + "\t"
+                + o.avgTime + "\t"
+                + n.avgTime + "\t"
+                + (n.avgTime == 0 ? "-" : numberFormat.format(o.avgTime * 1.0 / n.avgTime)) + "\t"
+                + delta(o.p50, n.p50) + "\t"
+                + delta(o.p90, n.p90) + "\t"
+                + delta(o.p99, n.p99) + "\t"
+                + flag);
+    }
+
+    private static String delta(long oldValue, long newValue) {
+        if (oldValue < 0 || newValue < 0) {
+            return "-";
+        }
+        return String.valueOf(newValue - oldValue);
+    }
+
+    /**
+     * @return 1 if the new average is significantly slower, -1 if significantly faster, otherwise 0.
+     * Welch's t-test when both files carry the standard deviation, else only the relative change.
+     */
+    static int significant(Row o, Row n) {
+        long diff = n.avgTime - o.avgTime;
+        if (Math.abs(diff) < Math.max(1, o.avgTime) * SIGNIFICANT_CHANGE) {
+            return 0;
+        }
+
+        if (o.std >= 0 && n.std >= 0) {
+            double se = Math.sqrt((double) o.std * o.std / o.count + (double) n.std * n.std / n.count);
+            if (se > 0 && Math.abs(diff) / se < SIGNIFICANT_T) {
+                return 0;
+            }
+        }
+        return diff > 0 ? 1 : -1;
+    }
+
+    private static Row next(BufferedReader br) throws IOException {
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+                return Row.parse(line);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the file itself if its digests are ascending, otherwise a sorted temporary copy. A snapshot is
+     * printed to a temporary file in the `--benchmark` format, which is sorted.
+     */
+    static File sorted(File file) throws IOException {
+        if (BenchmarkSnapshot.isSnapshot(file.getPath())) {
+            File output = File.createTempFile("benchmark_snapshot", ".txt");
+            output.deleteOnExit();
+            try (PrintStream out = new PrintStream(output)) {
+                BenchmarkTest.print(BenchmarkSnapshot.read(file.getPath()).digests, false, out);
+            }
+            return output;
+        }
+        if (isSorted(file)) {
+            return file;
+        }
+
+        LOGGER.info("{} is not sorted by digest, sort it first", file);
+        // digest is the prefix before the first tab, so plain line order is the digest order
+        List<File> runs = new ArrayList<>();
+        String header;
+        try (BufferedReader br = new BufferedReader(new FileReader(file), 1 << 16)) {
+            header = br.readLine();
+            List<String> chunk = new ArrayList<>();
             String line;
             while ((line = br.readLine()) != null) {
-                String[] s = line.split("\t");
-                cmp.put(s[0], new TimeCmp(Long.parseLong(s[4]), null));
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                chunk.add(line);
+                if (chunk.size() >= SORT_CHUNK_LINES) {
+                    runs.add(writeRun(chunk));
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                runs.add(writeRun(chunk));
             }
         }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(logPath2))) {
+        File output = File.createTempFile("benchmark_sorted", ".txt");
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16))) {
+            out.println(header == null ? "" : header);
+            mergeRuns(runs, out);
+        } finally {
+            for (File f : runs) {
+                f.delete();
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Merge sorted runs into one sorted output
+     */
+    static void mergeRuns(List<File> runs, PrintStream out) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+        try {
+            for (File f : runs) {
+                Run run = new Run(f);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                out.println(run.line);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+        } finally {
+            for (Run run : queue) {
+                run.reader.close();
+            }
+        }
+    }
+
+    private static boolean isSorted(File file) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(file), 1 << 16)) {
             br.readLine();
+            String previous = null;
             String line;
             while ((line = br.readLine()) != null) {
-                String[] s = line.split("\t");
-                if (cmp.get(s[0]) != null) {
-                    cmp.get(s[0]).t2 = Long.parseLong(s[4]);
+                if (line.trim().isEmpty()) {
+                    continue;
                 }
+                int tab = line.indexOf('\t');
+                String digest = tab < 0 ? line : line.substring(0, tab);
+                if (previous != null && previous.compareTo(digest) > 0) {
+                    return false;
+                }
+                previous = digest;
+            }
+        }
+        return true;
+    }
+
+    private static File writeRun(List<String> chunk) throws IOException {
+        Collections.sort(chunk);
+        File run = File.createTempFile("benchmark_run", ".txt");
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(run), 1 << 16)) {
+            for (String line : chunk) {
+                bw.write(line);
+                bw.newLine();
+            }
+        }
+        return run;
+    }
+
+    private static class Run implements Comparable<Run> {
+        final BufferedReader reader;
+        String line;
+
+        Run(File file) throws IOException {
+            this.reader = new BufferedReader(new FileReader(file), 1 << 16);
+        }
+
+        boolean advance() throws IOException {
+            line = reader.readLine();
+            if (line == null) {
+                reader.close();
+                return false;
             }
+            return true;
         }
-        System.out.println("SQL DIGEST" + "\t\t\t" + "Original(ms)" + "\t" + "New(ms)" + "\t" + "Performance boost");
 
-        for (Map.Entry<String, TimeCmp> m : cmp.entrySet()) {
-            System.out.println(m.getKey() + "\t"
-                    + m.getValue().t1 + "\t"
-                    + m.getValue().t2 + "\t"
-                    + m.getValue().t1 / m.getValue().t2);
+        @Override
+        public int compareTo(Run o) {
+            return line.compareTo(o.line);
         }
     }
 }
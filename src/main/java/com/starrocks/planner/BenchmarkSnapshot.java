@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary snapshot of the per digest counters of `-benchmark`: count, min, max, sum, sum of squares and the latency
+ * histogram, so snapshots of days merge into weeks exactly, and the percentiles of a merged snapshot are the ones
+ * of a single run over all the audit logs.
+ *
+ * Format, gzipped: magic, version, period start and end in epoch ms (-1 if unknown), digest count, then per digest
+ * the digest, the counters and the histogram buckets, numbers as varints.
+ */
+public class BenchmarkSnapshot {
+    private static final Logger LOGGER = LogManager.getLogger(BenchmarkSnapshot.class);
+
+    // "CBOS"
+    private static final int MAGIC = 0x43424f53;
+    private static final int VERSION = 1;
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long DAY_MS = 24L * 3600 * 1000;
+
+    // first and last audit record of the period, epoch ms
+    long start = -1;
+    long end = -1;
+    final DigestTable digests;
+
+    BenchmarkSnapshot(long start, long end, DigestTable digests) {
+        this.start = start;
+        this.end = end;
+        this.digests = digests;
+    }
+
+    /**
+     * @param start "yyyy-MM-dd HH:mm:ss" of the audit log, null if unknown
+     */
+    static long parseTime(String start) {
+        if (start == null) {
+            return -1;
+        }
+        try {
+            return LocalDateTime.parse(start, DATE_TIME_FORMATTER).atZone(ZoneId.systemDefault()).toInstant()
+                    .toEpochMilli();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String formatTime(long time) {
+        if (time < 0) {
+            return "-";
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()).format(DATE_TIME_FORMATTER);
+    }
+
+    void write(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(path)), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(start);
+            out.writeLong(end);
+            writeVarLong(out, digests.size());
+            for (int entry = 0; entry < digests.size(); entry++) {
+                BenchmarkTest.TimeAndCount tc = digests.countersAt(entry);
+                out.writeUTF(digests.digestAt(entry));
+                writeVarLong(out, tc.count);
+                writeVarLong(out, tc.minTime);
+                writeVarLong(out, tc.maxTime);
+                writeVarLong(out, tc.totalTime);
+                out.writeDouble(tc.totalSquare);
+                writeVarLong(out, tc.histogram.size());
+                int last = 0;
+                for (int i = 0; i < tc.histogram.size(); i++) {
+                    // buckets are sorted, store the gaps
+                    writeVarLong(out, tc.histogram.bucketAt(i) - last);
+                    writeVarLong(out, tc.histogram.countAt(i));
+                    last = tc.histogram.bucketAt(i);
+                }
+            }
+        }
+        // not info, the -benchmark table is on stdout
+        LOGGER.debug("snapshot of {} digests written to {}", digests.size(), path);
+    }
+
+    static BenchmarkSnapshot read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(path)), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a benchmark snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(path + " is a snapshot of version " + version + ", expect " + VERSION);
+            }
+            long start = in.readLong();
+            long end = in.readLong();
+            long size = readVarLong(in);
+            DigestTable digests = new DigestTable();
+            for (long d = 0; d < size; d++) {
+                String digest = in.readUTF();
+                long count = readVarLong(in);
+                long minTime = readVarLong(in);
+                long maxTime = readVarLong(in);
+                long totalTime = readVarLong(in);
+                double totalSquare = in.readDouble();
+                SparseHistogram histogram = new SparseHistogram();
+                long buckets = readVarLong(in);
+                int bucket = 0;
+                for (long i = 0; i < buckets; i++) {
+                    bucket += (int) readVarLong(in);
+                    histogram.add(bucket, readVarLong(in));
+                }
+                digests.merge(digest, count, maxTime, minTime, totalTime, totalSquare, histogram);
+            }
+            return new BenchmarkSnapshot(start, end, digests);
+        }
+    }
+
+    static boolean isSnapshot(String path) {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(path)))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Add the digests and the period of another snapshot
+     */
+    void merge(BenchmarkSnapshot other) {
+        start = start < 0 ? other.start : (other.start < 0 ? start : Math.min(start, other.start));
+        end = Math.max(end, other.end);
+        digests.merge(other.digests);
+    }
+
+    /**
+     * Latency of one digest in every snapshot, ordered by period
+     *
+     * @param paths snapshot files or folders of snapshots, separated by ','
+     * @param days  only the snapshots ending in the last days before the latest snapshot, 0 for all
+     */
+    public static void trend(String digest, String paths, int days, PrintStream out) throws IOException {
+        List<BenchmarkSnapshot> snapshots = new ArrayList<>();
+        for (String path : paths.split(",")) {
+            File file = new File(path.trim());
+            File[] files = file.isDirectory() ? file.listFiles(File::isFile) : new File[] {file};
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                if (isSnapshot(f.getPath())) {
+                    snapshots.add(read(f.getPath()));
+                }
+            }
+        }
+        snapshots.sort((a, b) -> Long.compare(a.start, b.start));
+        long latest = snapshots.stream().mapToLong(s -> s.end).max().orElse(-1);
+
+        out.println("Start" + "\t" + "End" + "\t" + "SQL count" + "\t" + "Avg Time(ms)" + "\t" + "P50(ms)" + "\t"
+                + "P90(ms)" + "\t" + "P99(ms)" + "\t" + "Std(ms)" + "\t" + "Change");
+        long first = -1;
+        for (BenchmarkSnapshot snapshot : snapshots) {
+            if (days > 0 && latest >= 0 && snapshot.end >= 0 && latest - snapshot.end >= days * DAY_MS) {
+                continue;
+            }
+            BenchmarkTest.TimeAndCount tc = snapshot.digests.get(digest);
+            String period = formatTime(snapshot.start) + "\t" + formatTime(snapshot.end);
+            if (tc == null) {
+                out.println(period + "\t0\t-\t-\t-\t-\t-\t-");
+                continue;
+            }
+            // change of the average against the first period with the digest
+            if (first < 0) {
+                first = tc.getAvgTime();
+            }
+            out.println(period + "\t" + tc.getCount() + "\t" + tc.getAvgTime() + "\t" + tc.getPercentile(50) + "\t"
+                    + tc.getPercentile(90) + "\t" + tc.getPercentile(99) + "\t" + tc.getStdTime() + "\t"
+                    + String.format("%.2f%%", (tc.getAvgTime() - first) * 100.0 / Math.max(1, first)));
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
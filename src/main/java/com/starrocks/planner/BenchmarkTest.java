@@ -1,35 +1,41 @@
 // This file is licensed under the Elastic License 2.0. Copyright 2021 StarRocks Limited.
 package com.starrocks.planner;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 public class BenchmarkTest {
     private static final Logger LOGGER = LogManager.getLogger(BenchmarkTest.class);
 
-    private static class TimeAndCount {
+    static class TimeAndCount {
+        public TimeAndCount() {
+        }
+
         public TimeAndCount(Long time) {
-            this.avgTime = time;
-            this.minTime = time;
-            this.maxTime = time;
-            this.count++;
+            touch(time);
         }
 
-        Long avgTime = 0L;
-        Long maxTime = Long.MIN_VALUE;
-        Long minTime = Long.MAX_VALUE;
-        Long count = 0L;
+        long totalTime = 0L;
+        double totalSquare = 0;
+        long maxTime = Long.MIN_VALUE;
+        long minTime = Long.MAX_VALUE;
+        long count = 0L;
+        SparseHistogram histogram = new SparseHistogram();
 
-        public void touch(Long time) {
+        public void touch(long time) {
             if (time > maxTime) {
                 maxTime = time;
             }
@@ -37,12 +43,14 @@ public class BenchmarkTest {
                 minTime = time;
             }
 
-            avgTime = (avgTime * count + time) / (count + 1);
+            totalTime += time;
+            totalSquare += (double) time * time;
+            histogram.record(time);
             count++;
         }
 
         public Long getAvgTime() {
-            return avgTime;
+            return totalTime / count;
         }
 
         public Long getMaxTime() {
@@ -56,63 +64,307 @@ public class BenchmarkTest {
         public Long getCount() {
             return count;
         }
+
+        public long getPercentile(double percentile) {
+            return histogram.getPercentile(percentile, minTime, maxTime);
+        }
+
+        void merge(TimeAndCount other) {
+            count += other.count;
+            maxTime = Math.max(maxTime, other.maxTime);
+            minTime = Math.min(minTime, other.minTime);
+            totalTime += other.totalTime;
+            totalSquare += other.totalSquare;
+            histogram.merge(other.histogram);
+        }
+
+        String histogramString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < histogram.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(histogram.bucketAt(i)).append(':').append(histogram.countAt(i));
+            }
+            return sb.toString();
+        }
+
+        public long getStdTime() {
+            double avg = totalTime * 1.0 / count;
+            return Math.round(Math.sqrt(Math.max(0, totalSquare / count - avg * avg)));
+        }
     }
 
 
+    /**
+     * "bucket:count,bucket:count" of a shard output
+     */
+    static SparseHistogram parseHistogram(String histogram) {
+        SparseHistogram result = new SparseHistogram();
+        for (String entry : histogram.split(",")) {
+            int colon = entry.indexOf(':');
+            if (colon > 0) {
+                result.add(Integer.parseInt(entry.substring(0, colon)), Long.parseLong(entry.substring(colon + 1)));
+            }
+        }
+        return result;
+    }
+
     public static void bench(String logPath) throws IOException {
-        Map<String, TimeAndCount> digestMap = new HashMap<>();
+        bench(logPath, null, null, 1);
+    }
 
+    /**
+     * @param shard    null for the whole file. A shard also prints the exact sums and the histogram of every digest,
+     *                 so {@link #merge} gives the same output as one run on the whole file.
+     * @param snapshot file of the {@link BenchmarkSnapshot}, null for none
+     * @param passes   read the file once per part of the digests, so only a part of them is in memory at a time.
+     *                 The sorted outputs of the passes are merged like the runs of an external sort.
+     */
+    public static void bench(String logPath, Shard shard, String snapshot, int passes) throws IOException {
         File auditFile = new File(logPath);
         if (!auditFile.exists()) {
             LOGGER.error("Couldn't find the fe.audit.log file");
         }
+        if (passes > 1 && snapshot != null) {
+            throw new IllegalArgumentException("-snapshot needs all digests in memory, it can't be used with -passes");
+        }
+        if (passes <= 1) {
+            print(bench(auditFile, shard, snapshot, 0, 1), shard != null, System.out);
+            return;
+        }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(auditFile))) {
-            String line;
-            StringBuilder auditBuilder = new StringBuilder();
-            boolean isStart;
-            while ((line = br.readLine()) != null) {
-                isStart = line.contains("query] |Client");
-                if (isStart) {
-                    String auditLog = auditBuilder.toString();
-                    refresh(digestMap, auditLog);
-                    auditBuilder = new StringBuilder(line);
-                } else {
-                    auditBuilder.append(line).append(" ");
+        List<File> runs = new ArrayList<>();
+        try {
+            for (int pass = 0; pass < passes; pass++) {
+                DigestTable table = bench(auditFile, shard, null, pass, passes);
+                File run = File.createTempFile("benchmark_pass", ".txt");
+                runs.add(run);
+                try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+                    printRows(table, shard != null, out);
+                }
+                LOGGER.debug("pass {} of {}: {} digests", pass, passes, table.size());
+            }
+            // the passes hold disjoint digests, the merge of the sorted runs is sorted
+            printHeader(shard != null, null, System.out);
+            BenchmarkCmp.mergeRuns(runs, System.out);
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private static DigestTable bench(File auditFile, Shard shard, String snapshot, int pass, int passes)
+            throws IOException {
+        AuditIndex index = AuditIndex.open(auditFile.getPath());
+        if (index != null) {
+            try {
+                return bench(index, auditFile.length(), shard, snapshot, pass, passes);
+            } finally {
+                index.close();
+            }
+        }
+
+        DigestTable table = new DigestTable();
+        long rangeEnd = shard == null ? Long.MAX_VALUE : shard.rangeEnd(auditFile.length());
+        // "yyyy-MM-dd HH:mm:ss" of the first and the last record, compared as strings
+        String start = null;
+        String end = null;
+        try (AuditLogReader reader = new AuditLogReader(auditFile.getPath())) {
+            if (shard != null) {
+                reader.skipTo(shard.rangeStart(auditFile.length()));
+            }
+            String auditLog;
+            while ((auditLog = reader.next()) != null && reader.getRecordOffset() < rangeEnd) {
+                refresh(table, auditLog, shard, pass, passes);
+                if (snapshot != null && auditLog.length() >= 19) {
+                    String time = auditLog.substring(0, 19);
+                    start = start == null || time.compareTo(start) < 0 ? time : start;
+                    end = end == null || time.compareTo(end) > 0 ? time : end;
                 }
             }
-            refresh(digestMap, auditBuilder.toString());
         }
 
-        System.out.println("SQL DIGEST" + "\t\t\t" + "SQL count" + "\t" + "Max time(ms)" + "\t" + "Min time(ms)" + "\t" + "Avg Time(ms)");
-        for (Map.Entry<String, TimeAndCount> d : digestMap.entrySet()) {
-            TimeAndCount tc = d.getValue();
-            System.out.println(d.getKey() + "\t" +
-                    tc.getCount() + "\t" +
-                    tc.getMaxTime() + "\t" +
-                    tc.getMinTime() + "\t" +
-                    tc.getAvgTime());
+        if (snapshot != null) {
+            new BenchmarkSnapshot(BenchmarkSnapshot.parseTime(start), BenchmarkSnapshot.parseTime(end), table)
+                    .write(snapshot);
         }
+        return table;
     }
 
-    private static void refresh(Map<String, TimeAndCount> digestMap, String auditLog) {
+    /**
+     * Aggregate from the sidecar index, the audit log is not read
+     */
+    private static DigestTable bench(AuditIndex index, long length, Shard shard, String snapshot, int pass,
+                                     int passes) throws IOException {
+        DigestTable table = new DigestTable();
+        // table entry by digest id of the index, -1 for not seen yet, -2 for a digest of another shard or pass
+        int[] entries = new int[index.digestCount()];
+        Arrays.fill(entries, -1);
+        long rangeStart = shard == null ? 0 : shard.rangeStart(length);
+        long rangeEnd = shard == null ? Long.MAX_VALUE : shard.rangeEnd(length);
+        long start = -1;
+        long end = -1;
+
+        AuditIndex.Entry e = new AuditIndex.Entry();
+        try (AuditIndex.Cursor cursor = index.cursor()) {
+            while (cursor.next(e) && e.offset < rangeEnd) {
+                if (e.offset < rangeStart) {
+                    continue;
+                }
+                if (e.timestamp >= 0) {
+                    start = start < 0 ? e.timestamp : Math.min(start, e.timestamp);
+                    end = Math.max(end, e.timestamp);
+                }
+                if (!e.is(AuditIndex.QUERY) || e.is(AuditIndex.ERROR) || e.digest < 0) {
+                    continue;
+                }
+                int entry = entries[e.digest];
+                if (entry == -1) {
+                    String digest = index.digest(e.digest);
+                    entry = owns(digest, shard, pass, passes) ? table.add(digest) : -2;
+                    entries[e.digest] = entry;
+                }
+                if (entry >= 0) {
+                    table.record(entry, e.time);
+                }
+            }
+        }
+
+        if (snapshot != null) {
+            new BenchmarkSnapshot(start, end, table).write(snapshot);
+        }
+        return table;
+    }
+
+    /**
+     * Merge the `-benchmark -shard` outputs of all shards, or snapshots
+     *
+     * @param snapshot file of the merged {@link BenchmarkSnapshot}, null for none
+     */
+    public static void merge(List<String> files, String snapshot) throws IOException {
+        BenchmarkSnapshot merged = new BenchmarkSnapshot(-1, -1, new DigestTable());
+        DigestTable table = merged.digests;
+        for (String file : files) {
+            if (BenchmarkSnapshot.isSnapshot(file.trim())) {
+                merged.merge(BenchmarkSnapshot.read(file.trim()));
+                continue;
+            }
+            try (BufferedReader br = new BufferedReader(new FileReader(file.trim()), 1 << 16)) {
+                br.readLine();
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    String[] s = line.split("\t");
+                    if (s.length < 12) {
+                        throw new IOException(file + " is not the output of a shard: " + line);
+                    }
+                    table.merge(s[0], Long.parseLong(s[1]), Long.parseLong(s[2]), Long.parseLong(s[3]),
+                            Long.parseLong(s[9]), Double.parseDouble(s[10]), parseHistogram(s[11]));
+                }
+            }
+        }
+        print(table, false, System.out);
+        if (snapshot != null) {
+            merged.write(snapshot);
+        }
+    }
+
+    static void print(Map<String, TimeAndCount> digestMap, boolean mergeable, PrintStream out) {
+        print(digestMap, mergeable, null, out);
+    }
+
+    /**
+     * @param cacheMode cache state of the timed runs, written at the end of the header, which the readers skip
+     */
+    static void print(Map<String, TimeAndCount> digestMap, boolean mergeable, String cacheMode, PrintStream out) {
+        // sorted by digest, so BenchmarkCmp can merge two outputs without sorting them again
+        List<String> digests = new ArrayList<>(digestMap.keySet());
+        Collections.sort(digests);
+
+        printHeader(mergeable, cacheMode, out);
+        for (String digest : digests) {
+            printRow(digest, digestMap.get(digest), mergeable, out);
+        }
+    }
+
+    static void print(DigestTable table, boolean mergeable, PrintStream out) {
+        printHeader(mergeable, null, out);
+        printRows(table, mergeable, out);
+    }
+
+    private static void printRows(DigestTable table, boolean mergeable, PrintStream out) {
+        for (int entry : table.sortedEntries()) {
+            printRow(table.digestAt(entry), table.countersAt(entry), mergeable, out);
+        }
+    }
+
+    private static void printHeader(boolean mergeable, String cacheMode, PrintStream out) {
+        out.println("SQL DIGEST" + "\t\t\t" + "SQL count" + "\t" + "Max time(ms)" + "\t" + "Min time(ms)" + "\t" + "Avg Time(ms)"
+                + "\t" + "P50(ms)" + "\t" + "P90(ms)" + "\t" + "P99(ms)" + "\t" + "Std(ms)"
+                + (mergeable ? "\t" + "Total(ms)" + "\t" + "Square" + "\t" + "Histogram" : "")
+                + (cacheMode == null ? "" : "\t" + "Cache: " + cacheMode));
+    }
+
+    private static void printRow(String digest, TimeAndCount tc, boolean mergeable, PrintStream out) {
+        out.println(digest + "\t" +
+                tc.getCount() + "\t" +
+                tc.getMaxTime() + "\t" +
+                tc.getMinTime() + "\t" +
+                tc.getAvgTime() + "\t" +
+                tc.getPercentile(50) + "\t" +
+                tc.getPercentile(90) + "\t" +
+                tc.getPercentile(99) + "\t" +
+                tc.getStdTime() +
+                (mergeable ? "\t" + tc.totalTime + "\t" + tc.totalSquare + "\t" + tc.histogramString() : ""));
+    }
+
+    private static boolean owns(String digest, Shard shard, int pass, int passes) {
+        if (shard != null && !shard.ownsDigest(digest.hashCode())) {
+            return false;
+        }
+        // the pass by the table hash, independent of the shard by String.hashCode
+        return passes <= 1 || Long.remainderUnsigned(DigestTable.hash(digest), passes) == pass;
+    }
+
+    /**
+     * Record the latency of a query record of the shard, if its digest is in the pass
+     */
+    static void refresh(DigestTable table, String auditLog, Shard shard, int pass, int passes) {
         if (auditLog.isEmpty()) {
             return;
         }
 
         String[] strings = auditLog.split("\\|");
+        if (strings.length < 14) {
+            return;
+        }
+
         boolean isQuery = Boolean.parseBoolean(strings[11].split("=")[1]);
-        if (strings[14].split("Digest=").length > 1) {
-            String digest = strings[14].split("Digest=")[1];
-            if (isQuery && !digest.trim().isEmpty() && !(strings[4].equals("State=ERR"))) {
-                Long time = Long.parseLong(strings[5].split("Time=")[1]);
-
-                if (digestMap.get(digest) != null) {
-                    digestMap.get(digest).touch(time);
-                } else {
-                    digestMap.put(digest, new TimeAndCount(time));
-                }
+        if (!isQuery || strings[4].equals("State=ERR")) {
+            return;
+        }
+
+        String digest = "";
+        if (strings.length > 14 && strings[14].split("Digest=").length > 1) {
+            digest = strings[14].split("Digest=")[1];
+        }
+        if (digest.trim().isEmpty()) {
+            // FE without the Digest field, compute it locally
+            String[] stmt = strings[13].split("Stmt=");
+            if (stmt.length < 2) {
+                return;
             }
+            digest = SqlDigest.digest(stmt[1]);
         }
+
+        if (!owns(digest, shard, pass, passes)) {
+            return;
+        }
+
+        table.record(digest, Long.parseLong(strings[5].split("Time=")[1]));
     }
 }
@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diff mode within a time budget, for a fixed validation window.
+ *
+ * The first pass builds the digest profile of the log like `-benchmark`: count, total time, and a reservoir of
+ * BUDGET_SAMPLES queries per digest, kept as the offset and line of the record and read again when it runs. The
+ * replay then picks the digest with the largest total time / (executed + 1) each time a diff thread of DIFF_THREADS
+ * is free, so the heaviest digests run first, every digest is reached before the heavy ones repeat much, and the
+ * number of samples of a digest follows its share of the workload. A digest runs one query at a time. It stops
+ * before a query that can't finish within the budget, and reports the share of the workload time covered by the
+ * executed digests.
+ */
+public class BudgetReplay {
+    private static final Logger LOGGER = LogManager.getLogger(BudgetReplay.class);
+
+    private static class Digest {
+        final String digest;
+        long count = 0;
+        long totalTime = 0;
+        // offset, line of the sampled records
+        final List<long[]> samples = new ArrayList<>();
+        int started = 0;
+        int executed = 0;
+        int failed = 0;
+        long replayTime = 0;
+
+        Digest(String digest) {
+            this.digest = digest;
+        }
+
+        double priority() {
+            return (double) totalTime / (executed + 1);
+        }
+
+        // both planners, estimated from the last replays or the original time
+        long estimateMs() {
+            return executed > 0 ? replayTime / executed : 2 * totalTime / Math.max(1, count);
+        }
+    }
+
+    /**
+     * @param budget e.g. "2h", "90m", "600s", or seconds
+     */
+    public static void replay(String path, String budget) throws Exception {
+        long budgetMs = parseDuration(budget);
+        long deadline = System.currentTimeMillis() + budgetMs;
+
+        Map<String, Digest> digests = profile(path);
+        long workloadTime = 0;
+        for (Digest d : digests.values()) {
+            workloadTime += d.totalTime;
+        }
+        LOGGER.info("budget replay of {} digests in {}s", digests.size(), budgetMs / 1000);
+
+        PriorityQueue<Digest> queue = new PriorityQueue<>((a, b) -> Double.compare(b.priority(), a.priority()));
+        queue.addAll(digests.values());
+        int threads = Math.max(1, Config.DIFF_THREADS);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // guarded by queue, as the digests
+        int[] running = {0};
+        int count = 0;
+        try {
+            synchronized (queue) {
+                while (true) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    if (running[0] >= threads || (queue.isEmpty() && running[0] > 0)) {
+                        // a running digest goes back to the queue when done
+                        queue.wait(Math.min(remaining, 1000));
+                        continue;
+                    }
+                    if (queue.isEmpty()) {
+                        break;
+                    }
+                    Digest d = queue.poll();
+                    if (d.estimateMs() > remaining) {
+                        // too slow for the rest of the budget, cheaper digests may still fit
+                        continue;
+                    }
+
+                    long[] sample = d.samples.get(d.started++);
+                    running[0]++;
+                    pool.execute(() -> {
+                        long start = System.currentTimeMillis();
+                        boolean success = diff(path, sample[0], sample[1]);
+                        synchronized (queue) {
+                            d.replayTime += System.currentTimeMillis() - start;
+                            d.executed++;
+                            d.failed += success ? 0 : 1;
+                            if (d.started < d.samples.size()) {
+                                queue.add(d);
+                            }
+                            running[0]--;
+                            queue.notifyAll();
+                        }
+                    });
+
+                    count++;
+                    if (count % 1000 == 0) {
+                        LOGGER.info("test sql {}, {}s of budget left", count,
+                                (deadline - System.currentTimeMillis()) / 1000);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        write(digests, workloadTime);
+        FailureClusters.write();
+    }
+
+    private static boolean diff(String path, long offset, long line) {
+        try {
+            String auditLog = AuditLogReader.readAt(path, offset);
+            Optional<Pair<String, String>> sql = auditLog == null ? Optional.empty() : NewPlannerTest.getSQL(auditLog);
+            if (!sql.isPresent()) {
+                throw new IOException("no query at offset " + offset);
+            }
+            return NewPlannerTest.diff(sql.get().getLeft(), sql.get().getRight(), auditLog, line);
+        } catch (IOException e) {
+            LOGGER.warn("read the sample of line {} failed", line, e);
+            Metrics.recordQuery(SQLog.ErrorType.OTHER);
+            return false;
+        }
+    }
+
+    private static Map<String, Digest> profile(String path) throws IOException {
+        Map<String, Digest> digests = new HashMap<>();
+        Random random = new Random(0);
+        try (AuditLogReader reader = new AuditLogReader(path)) {
+            String auditLog;
+            while ((auditLog = reader.next()) != null) {
+                Optional<Pair<String, String>> sql = NewPlannerTest.getSQL(auditLog);
+                if (!sql.isPresent() || !NewPlannerTest.inReplayWindow(auditLog)) {
+                    continue;
+                }
+                AuditRecord record = AuditRecord.parse(auditLog);
+                if (record == null) {
+                    continue;
+                }
+
+                Digest d = digests.computeIfAbsent(record.digest, Digest::new);
+                d.count++;
+                d.totalTime += record.time;
+                long[] sample = {reader.getRecordOffset(), reader.getRecordLine()};
+                // reservoir sampling, the samples are spread over the whole log
+                if (d.samples.size() < Config.BUDGET_SAMPLES) {
+                    d.samples.add(sample);
+                } else {
+                    long i = (long) (random.nextDouble() * d.count);
+                    if (i < Config.BUDGET_SAMPLES) {
+                        d.samples.set((int) i, sample);
+                    }
+                }
+            }
+        }
+        return digests;
+    }
+
+    private static void write(Map<String, Digest> digests, long workloadTime) throws IOException {
+        List<Digest> sorted = new ArrayList<>(digests.values());
+        sorted.sort((a, b) -> Long.compare(b.totalTime, a.totalTime));
+
+        long coveredTime = 0;
+        long coveredDigests = 0;
+        long executed = 0;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/budget_coverage.txt"))) {
+            bw.write("SQL DIGEST" + "\t\t\t" + "SQL count" + "\t" + "Avg Time(ms)" + "\t" + "Workload share" + "\t"
+                    + "Executed" + "\t" + "Failed");
+            bw.newLine();
+            for (Digest d : sorted) {
+                if (d.executed > 0) {
+                    coveredTime += d.totalTime;
+                    coveredDigests++;
+                    executed += d.executed;
+                }
+                bw.write(d.digest + "\t"
+                        + d.count + "\t"
+                        + d.totalTime / Math.max(1, d.count) + "\t"
+                        + percent(d.totalTime, workloadTime) + "\t"
+                        + d.executed + "\t"
+                        + d.failed);
+                bw.newLine();
+            }
+        }
+        LOGGER.info("budget replay done: {} queries of {} of {} digests, {} of the workload time covered",
+                executed, coveredDigests, digests.size(), percent(coveredTime, workloadTime));
+    }
+
+    static long parseDuration(String budget) {
+        String value = budget.trim().toLowerCase();
+        long unit = 1000;
+        if (value.endsWith("h")) {
+            unit = 3600 * 1000;
+        } else if (value.endsWith("m")) {
+            unit = 60 * 1000;
+        } else if (value.endsWith("s")) {
+            unit = 1000;
+        } else {
+            return Long.parseLong(value) * unit;
+        }
+        return (long) (Double.parseDouble(value.substring(0, value.length() - 1)) * unit);
+    }
+
+    static String percent(long part, long total) {
+        return total == 0 ? "-" : String.format("%.2f%%", part * 100.0 / total);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache state of the timed runs of the diff mode, CACHE_MODE:
+ *
+ * none: as the query finds it, the old planner runs first and warms the caches for the new planner.
+ * warm: both planners run the query once untimed before the timed runs.
+ * cold: CACHE_DROP_HOOK runs before each timed run, e.g. a script dropping the page cache and the data cache of
+ * the BEs. Only meaningful with DIFF_THREADS = 1, other queries warm the caches in between.
+ * alternate: the planner running first alternates from one query to the next, so the warming evens out.
+ */
+public class CacheControl {
+    private static final Logger LOGGER = LogManager.getLogger(CacheControl.class);
+
+    private static final AtomicLong QUERIES = new AtomicLong();
+
+    enum Mode {
+        NONE,
+        WARM,
+        COLD,
+        ALTERNATE,
+    }
+
+    static Mode mode() {
+        return Config.CACHE_MODE;
+    }
+
+    /**
+     * Name of the mode as the A/B mode applies it, both clusters run at the same time so none alternates
+     */
+    static String abName() {
+        return mode() == Mode.ALTERNATE ? "none" : mode().toString().toLowerCase();
+    }
+
+    /**
+     * @return true if the new planner runs first for this query in the alternate mode
+     */
+    static boolean newFirst() {
+        return QUERIES.getAndIncrement() % 2 == 1;
+    }
+
+    /**
+     * Run CACHE_DROP_HOOK, one at a time. A failing hook is logged, the query still runs.
+     */
+    static synchronized void dropCaches() {
+        if (Config.CACHE_DROP_HOOK.isEmpty()) {
+            return;
+        }
+        try {
+            Process process = new ProcessBuilder("sh", "-c", Config.CACHE_DROP_HOOK).inheritIO().start();
+            if (!process.waitFor(Config.CACHE_DROP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                LOGGER.warn("cache drop hook timed out after {}ms", Config.CACHE_DROP_TIMEOUT_MS);
+            } else if (process.exitValue() != 0) {
+                LOGGER.warn("cache drop hook exited with {}", process.exitValue());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.warn("cache drop hook failed", e);
+        }
+    }
+}
@@ -42,8 +42,88 @@ public class Config {
 
     public static int FRAGMENT_INSTANCE = -1;
 
+    // host:query_port:http_port,... of all FEs, empty to use CONNECT_URL and HTTP_PORT only
+    public static String FE_ENDPOINTS = "";
+    public static long FE_HEALTH_INTERVAL_MS = 5000;
+    // connection errors in a row to drop a FE until its next passing health check
+    public static int FE_MAX_FAILURES = 3;
+    // retries of a query after a transient error (connection reset, timeout, busy FE), waiting twice as long each
+    public static int QUERY_RETRIES = 2;
+    public static long RETRY_BACKOFF_MS = 1000;
+    // cache state of the timed runs of the diff mode: none, warm, cold or alternate
+    public static CacheControl.Mode CACHE_MODE = CacheControl.Mode.NONE;
+    // shell command dropping the caches of the cluster before each timed run of the cold mode
+    public static String CACHE_DROP_HOOK = "";
+    public static long CACHE_DROP_TIMEOUT_MS = 60000;
+    // compare the results of the diff mode row by row while they arrive, instead of loading them as dbunit tables,
+    // untimed in the planner diff
+    public static boolean STREAM_RESULTS = false;
+    // rows per fetch of the streamed results, needs useCursorFetch=true in CONNECT_URL, -1 streams row by row
+    public static int STREAM_FETCH_SIZE = -1;
+    // rows read ahead of the comparison per streamed result
+    public static int STREAM_BUFFER_ROWS = 10000;
+    public static long STREAM_CANCEL_TIMEOUT_MS = 10000;
+    // queries diffed in parallel
+    public static int DIFF_THREADS = 1;
+
+    // cluster B of the A/B mode, CONNECT_URL is cluster A
+    public static String CONNECT_URL_B = "";
+    public static String IP_B = "";
+    public static int HTTP_PORT_B = 8030;
+    public static String FE_ENDPOINTS_B = "";
+
     public static boolean SLOW_PROFILE = true;
     public static boolean SLOW_EXPLAIN = true;
+    // bisect the rule variables of SLOW queries
+    public static boolean BISECT = false;
+    // "name=value" separated by ';', each value turns off one rule or feature of the new planner
+    public static String BISECT_VARIABLES = "disable_join_reorder=true;cbo_enable_dp_join_reorder=false;"
+            + "cbo_enable_greedy_join_reorder=false;cbo_cte_reuse=false;enable_global_runtime_filter=false;"
+            + "cbo_enable_low_cardinality_optimize=false;cbo_push_down_aggregate_mode=-1;"
+            + "enable_materialized_view_rewrite=false";
+    // sessions of all bisections
+    public static int BISECT_PARALLELISM = 4;
+    // statistics updated longer ago than this are stale
+    public static double STATS_STALE_HOURS = 24;
+    // estimated and actual rows of a plan node differing by this factor are a misestimate
+    public static double STATS_MISESTIMATE = 10;
+    // keep the profile text of the FE instead of the parsed compact form
+    public static boolean PROFILE_RAW = false;
+
+    public static int METRICS_PORT = -1;
+
+    // replay at most N queries of the same digest in diff mode, -1 is unlimited
+    public static int SAMPLE_PER_DIGEST = -1;
+    // replay at most N queries of the same (old plan shape, new plan shape) in diff mode, -1 is unlimited
+    public static int SAMPLE_PER_SHAPE = -1;
+    // failed queries of the same cluster with explains, profiles and files in diff mode, -1 is unlimited
+    public static int FAILURE_EXEMPLARS = -1;
+    // queries kept per digest for the budget mode
+    public static int BUDGET_SAMPLES = 10;
+
+    // connections of the load replay mode
+    public static int LOAD_SESSIONS = 64;
+    // records are logged at finish, look ahead this long to replay them in start order
+    public static long LOAD_REORDER_MS = 60000;
+
+    // threads of the plan-only mode
+    public static int PLAN_SESSIONS = 16;
+    // plans of the plan-only mode, kept across runs, so not in OUTPUT_DIR
+    public static String PLAN_CACHE = "plan_cache.tsv";
+    // relative change of the estimated cost to flag a digest
+    public static double PLAN_COST_CHANGE = 0.2;
+
+    // threads of the workload report
+    public static int WORKLOAD_THREADS = 16;
+
+    // session variable dimensions of the matrix mode, "name=v1,v2;name=v1,v2"
+    public static String MATRIX = "";
+    // queries of each digest run under every combination
+    public static int MATRIX_SAMPLES = 3;
+    // threads of the matrix mode
+    public static int MATRIX_SESSIONS = 16;
+    // worst / best average latency of a digest to flag a cliff
+    public static double MATRIX_CLIFF = 2.0;
 
     public static void init() {
         try {
@@ -72,9 +152,164 @@ public class Config {
                     SLOW_EXPLAIN = Boolean.parseBoolean(properties.getProperty("SLOW_EXPLAIN"));
                 }
 
+                if (properties.containsKey("BISECT")) {
+                    BISECT = Boolean.parseBoolean(properties.getProperty("BISECT").trim());
+                }
+
+                if (properties.containsKey("BISECT_VARIABLES")) {
+                    BISECT_VARIABLES = properties.getProperty("BISECT_VARIABLES").trim();
+                }
+
+                if (properties.containsKey("BISECT_PARALLELISM")) {
+                    BISECT_PARALLELISM = Integer.parseInt(properties.getProperty("BISECT_PARALLELISM").trim());
+                }
+
+                if (properties.containsKey("STATS_STALE_HOURS")) {
+                    STATS_STALE_HOURS = Double.parseDouble(properties.getProperty("STATS_STALE_HOURS").trim());
+                }
+
+                if (properties.containsKey("STATS_MISESTIMATE")) {
+                    STATS_MISESTIMATE = Double.parseDouble(properties.getProperty("STATS_MISESTIMATE").trim());
+                }
+
+                if (properties.containsKey("PROFILE_RAW")) {
+                    PROFILE_RAW = Boolean.parseBoolean(properties.getProperty("PROFILE_RAW"));
+                }
+
                 if (properties.containsKey("FRAGMENT_INSTANCE")) {
                     FRAGMENT_INSTANCE = Integer.parseInt(properties.getProperty("FRAGMENT_INSTANCE"));
                 }
+
+                if (properties.containsKey("FE_ENDPOINTS")) {
+                    FE_ENDPOINTS = properties.getProperty("FE_ENDPOINTS").trim();
+                }
+
+                if (properties.containsKey("FE_HEALTH_INTERVAL_MS")) {
+                    FE_HEALTH_INTERVAL_MS = Long.parseLong(properties.getProperty("FE_HEALTH_INTERVAL_MS").trim());
+                }
+
+                if (properties.containsKey("FE_MAX_FAILURES")) {
+                    FE_MAX_FAILURES = Integer.parseInt(properties.getProperty("FE_MAX_FAILURES").trim());
+                }
+
+                if (properties.containsKey("CONNECT_URL_B")) {
+                    CONNECT_URL_B = properties.getProperty("CONNECT_URL_B").trim();
+                }
+
+                if (properties.containsKey("HTTP_PORT_B")) {
+                    HTTP_PORT_B = Integer.parseInt(properties.getProperty("HTTP_PORT_B").trim());
+                }
+
+                if (properties.containsKey("FE_ENDPOINTS_B")) {
+                    FE_ENDPOINTS_B = properties.getProperty("FE_ENDPOINTS_B").trim();
+                }
+
+                if (properties.containsKey("DIFF_THREADS")) {
+                    DIFF_THREADS = Integer.parseInt(properties.getProperty("DIFF_THREADS").trim());
+                }
+
+                if (properties.containsKey("METRICS_PORT")) {
+                    METRICS_PORT = Integer.parseInt(properties.getProperty("METRICS_PORT").trim());
+                }
+
+                if (properties.containsKey("SAMPLE_PER_DIGEST")) {
+                    SAMPLE_PER_DIGEST = Integer.parseInt(properties.getProperty("SAMPLE_PER_DIGEST").trim());
+                }
+
+                if (properties.containsKey("SAMPLE_PER_SHAPE")) {
+                    SAMPLE_PER_SHAPE = Integer.parseInt(properties.getProperty("SAMPLE_PER_SHAPE").trim());
+                }
+
+                if (properties.containsKey("CACHE_MODE")) {
+                    String mode = properties.getProperty("CACHE_MODE").trim();
+                    try {
+                        CACHE_MODE = CacheControl.Mode.valueOf(mode.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        logger.error("CACHE_MODE is none, warm, cold or alternate, not {}", mode);
+                        System.exit(-1);
+                    }
+                }
+
+                if (properties.containsKey("CACHE_DROP_HOOK")) {
+                    CACHE_DROP_HOOK = properties.getProperty("CACHE_DROP_HOOK").trim();
+                }
+
+                if (properties.containsKey("CACHE_DROP_TIMEOUT_MS")) {
+                    CACHE_DROP_TIMEOUT_MS = Long.parseLong(properties.getProperty("CACHE_DROP_TIMEOUT_MS").trim());
+                }
+
+                if (properties.containsKey("STREAM_RESULTS")) {
+                    STREAM_RESULTS = Boolean.parseBoolean(properties.getProperty("STREAM_RESULTS").trim());
+                }
+
+                if (properties.containsKey("STREAM_FETCH_SIZE")) {
+                    STREAM_FETCH_SIZE = Integer.parseInt(properties.getProperty("STREAM_FETCH_SIZE").trim());
+                }
+
+                if (properties.containsKey("STREAM_BUFFER_ROWS")) {
+                    STREAM_BUFFER_ROWS = Integer.parseInt(properties.getProperty("STREAM_BUFFER_ROWS").trim());
+                }
+
+                if (properties.containsKey("STREAM_CANCEL_TIMEOUT_MS")) {
+                    STREAM_CANCEL_TIMEOUT_MS =
+                            Long.parseLong(properties.getProperty("STREAM_CANCEL_TIMEOUT_MS").trim());
+                }
+
+                if (properties.containsKey("QUERY_RETRIES")) {
+                    QUERY_RETRIES = Integer.parseInt(properties.getProperty("QUERY_RETRIES").trim());
+                }
+
+                if (properties.containsKey("RETRY_BACKOFF_MS")) {
+                    RETRY_BACKOFF_MS = Long.parseLong(properties.getProperty("RETRY_BACKOFF_MS").trim());
+                }
+
+                if (properties.containsKey("FAILURE_EXEMPLARS")) {
+                    FAILURE_EXEMPLARS = Integer.parseInt(properties.getProperty("FAILURE_EXEMPLARS").trim());
+                }
+
+                if (properties.containsKey("BUDGET_SAMPLES")) {
+                    BUDGET_SAMPLES = Integer.parseInt(properties.getProperty("BUDGET_SAMPLES").trim());
+                }
+
+                if (properties.containsKey("LOAD_SESSIONS")) {
+                    LOAD_SESSIONS = Integer.parseInt(properties.getProperty("LOAD_SESSIONS").trim());
+                }
+
+                if (properties.containsKey("LOAD_REORDER_MS")) {
+                    LOAD_REORDER_MS = Long.parseLong(properties.getProperty("LOAD_REORDER_MS").trim());
+                }
+
+                if (properties.containsKey("PLAN_SESSIONS")) {
+                    PLAN_SESSIONS = Integer.parseInt(properties.getProperty("PLAN_SESSIONS").trim());
+                }
+
+                if (properties.containsKey("PLAN_CACHE")) {
+                    PLAN_CACHE = properties.getProperty("PLAN_CACHE").trim();
+                }
+
+                if (properties.containsKey("PLAN_COST_CHANGE")) {
+                    PLAN_COST_CHANGE = Double.parseDouble(properties.getProperty("PLAN_COST_CHANGE").trim());
+                }
+
+                if (properties.containsKey("MATRIX")) {
+                    MATRIX = properties.getProperty("MATRIX").trim();
+                }
+
+                if (properties.containsKey("MATRIX_SAMPLES")) {
+                    MATRIX_SAMPLES = Integer.parseInt(properties.getProperty("MATRIX_SAMPLES").trim());
+                }
+
+                if (properties.containsKey("MATRIX_SESSIONS")) {
+                    MATRIX_SESSIONS = Integer.parseInt(properties.getProperty("MATRIX_SESSIONS").trim());
+                }
+
+                if (properties.containsKey("WORKLOAD_THREADS")) {
+                    WORKLOAD_THREADS = Integer.parseInt(properties.getProperty("WORKLOAD_THREADS").trim());
+                }
+
+                if (properties.containsKey("MATRIX_CLIFF")) {
+                    MATRIX_CLIFF = Double.parseDouble(properties.getProperty("MATRIX_CLIFF").trim());
+                }
             } else {
                 logger.error("Not find config file!");
                 System.exit(-1);
@@ -102,5 +337,14 @@ public class Config {
         } else {
             logger.error("Not find IP in connect url");
         }
+
+        if (!CONNECT_URL_B.isEmpty()) {
+            matcher = p.matcher(CONNECT_URL_B);
+            if (matcher.find()) {
+                IP_B = matcher.group();
+            } else {
+                logger.error("Not find IP in connect url of cluster B");
+            }
+        }
     }
 }
@@ -0,0 +1,296 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Latency counters per digest for workloads of millions of digests: an open-addressing table of 64-bit digest
+ * hashes with linear probing, pointing into dense columns of primitive counters, one entry per digest.
+ *
+ * The digest text is stored once, in an append-only byte arena, and compared on a hash match, so hash collisions
+ * never merge two digests. Per digest this costs the counters, a slot of the table and a histogram, instead of the
+ * entry, the key string and the boxed counters of a HashMap.
+ */
+public class DigestTable {
+    private static final int INITIAL_CAPACITY = 1024;
+    // the table is resized at half full, linear probing stays short
+    private static final int MAX_LOAD_SHIFT = 1;
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    // open-addressing table: entry + 1 per slot, 0 is empty
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+
+    // columns by entry
+    private int size = 0;
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private long[] totals = new long[INITIAL_CAPACITY];
+    private double[] squares = new double[INITIAL_CAPACITY];
+    private long[] maxTimes = new long[INITIAL_CAPACITY];
+    private long[] minTimes = new long[INITIAL_CAPACITY];
+    private SparseHistogram[] histograms = new SparseHistogram[INITIAL_CAPACITY];
+
+    // digest text: chunk, offset in the chunk and length of every entry in the arena. The arena grows by chunks,
+    // never by copying all the text
+    private byte[][] chunks = new byte[][] {new byte[CHUNK_SIZE]};
+    private int chunkUsed = 0;
+    private int[] textChunks = new int[INITIAL_CAPACITY];
+    private int[] textOffsets = new int[INITIAL_CAPACITY];
+    private int[] textLengths = new int[INITIAL_CAPACITY];
+
+    public int size() {
+        return size;
+    }
+
+    public void record(String digest, long time) {
+        record(entryOf(digest, true), time);
+    }
+
+    /**
+     * @return the entry of the digest, a new one if not in the table
+     */
+    int add(String digest) {
+        return entryOf(digest, true);
+    }
+
+    void record(int entry, long time) {
+        counts[entry]++;
+        totals[entry] += time;
+        squares[entry] += (double) time * time;
+        maxTimes[entry] = Math.max(maxTimes[entry], time);
+        minTimes[entry] = Math.min(minTimes[entry], time);
+        histograms[entry].record(time);
+    }
+
+    /**
+     * Add the counters of a digest, as read from a shard output or a snapshot
+     */
+    void merge(String digest, long count, long maxTime, long minTime, long totalTime, double totalSquare,
+               SparseHistogram histogram) {
+        int entry = entryOf(digest, true);
+        counts[entry] += count;
+        totals[entry] += totalTime;
+        squares[entry] += totalSquare;
+        maxTimes[entry] = Math.max(maxTimes[entry], maxTime);
+        minTimes[entry] = Math.min(minTimes[entry], minTime);
+        histograms[entry].merge(histogram);
+    }
+
+    void merge(String digest, BenchmarkTest.TimeAndCount tc) {
+        merge(digest, tc.count, tc.maxTime, tc.minTime, tc.totalTime, tc.totalSquare, tc.histogram);
+    }
+
+    void merge(DigestTable other) {
+        for (int entry = 0; entry < other.size; entry++) {
+            merge(other.digestAt(entry), other.countersAt(entry));
+        }
+    }
+
+    /**
+     * @return a copy of the counters of the digest, null if not in the table
+     */
+    BenchmarkTest.TimeAndCount get(String digest) {
+        int entry = entryOf(digest, false);
+        return entry < 0 ? null : countersAt(entry);
+    }
+
+    /**
+     * @param entry 0 to size - 1, in insertion order
+     */
+    String digestAt(int entry) {
+        return new String(chunks[textChunks[entry]], textOffsets[entry], textLengths[entry], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a copy of the counters of the entry, sharing its histogram
+     */
+    BenchmarkTest.TimeAndCount countersAt(int entry) {
+        BenchmarkTest.TimeAndCount tc = new BenchmarkTest.TimeAndCount();
+        tc.count = counts[entry];
+        tc.totalTime = totals[entry];
+        tc.totalSquare = squares[entry];
+        tc.maxTime = maxTimes[entry];
+        tc.minTime = minTimes[entry];
+        tc.histogram = histograms[entry];
+        return tc;
+    }
+
+    /**
+     * @return the entries in ascending digest order, as printed by `--benchmark`
+     */
+    int[] sortedEntries() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sort(order, 0, size - 1);
+        return order;
+    }
+
+    /**
+     * 64-bit FNV-1a of the chars with a murmur3 finalizer, the low bits index the table
+     */
+    static long hash(String digest) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < digest.length(); i++) {
+            h = (h ^ digest.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private int entryOf(String digest, boolean create) {
+        long hash = hash(digest);
+        byte[] text = digest.getBytes(StandardCharsets.UTF_8);
+        int slot = (int) hash & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && textEquals(entry, text)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+
+        int entry = size++;
+        ensureColumns(size);
+        hashes[entry] = hash;
+        maxTimes[entry] = Long.MIN_VALUE;
+        minTimes[entry] = Long.MAX_VALUE;
+        histograms[entry] = new SparseHistogram();
+        append(entry, text);
+        slots[slot] = entry + 1;
+        if ((long) size << MAX_LOAD_SHIFT > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return entry;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = (int) hashes[entry] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    private void ensureColumns(int capacity) {
+        if (capacity <= hashes.length) {
+            return;
+        }
+        int length = hashes.length * 2;
+        hashes = Arrays.copyOf(hashes, length);
+        counts = Arrays.copyOf(counts, length);
+        totals = Arrays.copyOf(totals, length);
+        squares = Arrays.copyOf(squares, length);
+        maxTimes = Arrays.copyOf(maxTimes, length);
+        minTimes = Arrays.copyOf(minTimes, length);
+        histograms = Arrays.copyOf(histograms, length);
+        textChunks = Arrays.copyOf(textChunks, length);
+        textOffsets = Arrays.copyOf(textOffsets, length);
+        textLengths = Arrays.copyOf(textLengths, length);
+    }
+
+    private void append(int entry, byte[] text) {
+        if (chunkUsed + text.length > chunks[chunks.length - 1].length) {
+            // a text longer than a chunk gets a chunk of its own
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = new byte[Math.max(CHUNK_SIZE, text.length)];
+            chunkUsed = 0;
+        }
+        System.arraycopy(text, 0, chunks[chunks.length - 1], chunkUsed, text.length);
+        textChunks[entry] = chunks.length - 1;
+        textOffsets[entry] = chunkUsed;
+        textLengths[entry] = text.length;
+        chunkUsed += text.length;
+    }
+
+    private boolean textEquals(int entry, byte[] text) {
+        if (textLengths[entry] != text.length) {
+            return false;
+        }
+        byte[] chunk = chunks[textChunks[entry]];
+        int offset = textOffsets[entry];
+        for (int i = 0; i < text.length; i++) {
+            if (chunk[offset + i] != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare the digest texts byte by byte, the same order as String.compareTo for the ascii digests
+     */
+    private int compareText(int a, int b) {
+        byte[] ca = chunks[textChunks[a]];
+        byte[] cb = chunks[textChunks[b]];
+        int oa = textOffsets[a];
+        int ob = textOffsets[b];
+        int length = Math.min(textLengths[a], textLengths[b]);
+        for (int i = 0; i < length; i++) {
+            int c = (ca[oa + i] & 0xff) - (cb[ob + i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return textLengths[a] - textLengths[b];
+    }
+
+    /**
+     * Quicksort of the entries by digest text, on an int array instead of boxed indexes
+     */
+    private void sort(int[] order, int lo, int hi) {
+        while (lo < hi) {
+            int pivot = order[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (compareText(order[i], pivot) < 0) {
+                    i++;
+                }
+                while (compareText(order[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = order[i];
+                    order[i++] = order[j];
+                    order[j--] = t;
+                }
+            }
+            // recurse into the smaller side, loop on the larger one
+            if (j - lo < hi - i) {
+                sort(order, lo, j);
+                lo = i;
+            } else {
+                sort(order, i, hi);
+                hi = j;
+            }
+        }
+    }
+}
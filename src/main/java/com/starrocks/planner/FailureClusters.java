@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Failures of the diff mode clustered by their signature, so one planner bug breaking a common pattern costs
+ * FAILURE_EXEMPLARS queries with full artifacts instead of tens of thousands.
+ *
+ * The signature of an error (SYNTAX, OTHER) is the class, the message template and the top frames of its root
+ * cause. The signature of a wrong result or a slow query is its plan shape pair when SAMPLE_PER_SHAPE explained it,
+ * else its digest. Explains, profiles, data and files are collected for the first FAILURE_EXEMPLARS queries of a
+ * cluster, the others are counted only.
+ */
+public class FailureClusters {
+    private static final Logger LOGGER = LogManager.getLogger(FailureClusters.class);
+
+    static final String SUMMARY = "failure_clusters.tsv";
+    private static final String HEADER = "Type\tQueries\tExemplars\tSignature\tExample";
+
+    private static final int FRAMES = 3;
+    private static final int MAX_MESSAGE = 200;
+    // query ids, quoted names and values, numbers, in this order
+    private static final Pattern UUID = Pattern.compile("\\b[0-9a-fA-F]+(?:-[0-9a-fA-F]+){4}\\b");
+    private static final Pattern QUOTED = Pattern.compile("'[^']*'|\"[^\"]*\"|`[^`]*`");
+    private static final Pattern NUMBER = Pattern.compile("\\b(?:0x[0-9a-fA-F]+|\\d+(?:\\.\\d+)?)\\b");
+    private static final Pattern BLANK = Pattern.compile("\\s+");
+
+    private static final Map<String, Cluster> CLUSTERS = new LinkedHashMap<>();
+
+    private static class Cluster {
+        SQLog.ErrorType type;
+        long queries = 0;
+        long exemplars = 0;
+        String example;
+    }
+
+    /**
+     * @param error the error of an error type, null for a wrong result or a slow query
+     * @param shape the plan shape pair of the query, null if not explained
+     */
+    static String signature(SQLog.ErrorType type, Throwable error, String sql, String shape) {
+        if (error != null && (type == SQLog.ErrorType.SYNTAX || type == SQLog.ErrorType.OTHER)) {
+            Throwable root = error;
+            while (root.getCause() != null && root.getCause() != root) {
+                root = root.getCause();
+            }
+            StringBuilder signature = new StringBuilder(root.getClass().getName()).append(": ")
+                    .append(template(root.getMessage()));
+            StackTraceElement[] frames = root.getStackTrace();
+            for (int i = 0; i < Math.min(FRAMES, frames.length); i++) {
+                signature.append(i == 0 ? " at " : " < ").append(frames[i].getClassName()).append('.')
+                        .append(frames[i].getMethodName());
+            }
+            return signature.toString();
+        }
+        if (shape != null) {
+            return "shape " + shape.replace('\t', ' ');
+        }
+        return "digest " + SqlDigest.digest(sql);
+    }
+
+    /**
+     * First line of the message, with ids, quoted names and numbers replaced
+     */
+    static String template(String message) {
+        if (message == null) {
+            return "";
+        }
+        String line = message.trim();
+        int end = line.indexOf('\n');
+        line = end < 0 ? line : line.substring(0, end);
+        line = UUID.matcher(line).replaceAll("?");
+        line = QUOTED.matcher(line).replaceAll("?");
+        line = NUMBER.matcher(line).replaceAll("?");
+        line = BLANK.matcher(line).replaceAll(" ").trim();
+        return line.length() > MAX_MESSAGE ? line.substring(0, MAX_MESSAGE) : line;
+    }
+
+    /**
+     * Count the failure in its cluster
+     *
+     * @return true if its artifacts are collected, false if the cluster has FAILURE_EXEMPLARS already
+     */
+    static synchronized boolean admit(SQLog.ErrorType type, String signature, String sql) {
+        Cluster cluster = CLUSTERS.computeIfAbsent(type + "\t" + signature, k -> new Cluster());
+        if (cluster.example == null) {
+            cluster.type = type;
+            cluster.example = sql;
+        }
+        cluster.queries++;
+        if (Config.FAILURE_EXEMPLARS > 0 && cluster.exemplars >= Config.FAILURE_EXEMPLARS) {
+            return false;
+        }
+        cluster.exemplars++;
+        return true;
+    }
+
+    /**
+     * Write the clusters to OUTPUT_DIR, the largest first
+     */
+    static synchronized void write() throws IOException {
+        if (CLUSTERS.isEmpty()) {
+            return;
+        }
+        List<String[]> rows = new ArrayList<>();
+        long queries = 0;
+        long exemplars = 0;
+        for (Map.Entry<String, Cluster> entry : CLUSTERS.entrySet()) {
+            Cluster cluster = entry.getValue();
+            queries += cluster.queries;
+            exemplars += cluster.exemplars;
+            rows.add(new String[] {cluster.type.toString(), String.valueOf(cluster.queries),
+                    String.valueOf(cluster.exemplars), entry.getKey().substring(entry.getKey().indexOf('\t') + 1),
+                    oneLine(cluster.example)});
+        }
+        writeRows(rows);
+        LOGGER.info("failure clusters: {} clusters of {} failed queries, artifacts of {}", CLUSTERS.size(), queries,
+                exemplars);
+    }
+
+    /**
+     * Sum the clusters of the shards by type and signature. FAILURE_EXEMPLARS is applied by each shard, so a
+     * cluster can have up to the number of shards times of its exemplars.
+     */
+    static void merge(List<String> dirs) throws IOException {
+        Map<String, String[]> rows = new LinkedHashMap<>();
+        for (String dir : dirs) {
+            File file = new File(dir.trim(), SUMMARY);
+            if (!file.exists()) {
+                continue;
+            }
+            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+                // skip the header
+                String line = br.readLine();
+                while ((line = br.readLine()) != null) {
+                    // type, queries, exemplars, signature, example
+                    String[] s = line.split("\t", 5);
+                    if (s.length < 5) {
+                        continue;
+                    }
+                    String[] row = rows.putIfAbsent(s[0] + "\t" + s[3], s);
+                    if (row != null) {
+                        row[1] = String.valueOf(Long.parseLong(row[1]) + Long.parseLong(s[1]));
+                        row[2] = String.valueOf(Long.parseLong(row[2]) + Long.parseLong(s[2]));
+                    }
+                }
+            }
+        }
+        if (!rows.isEmpty()) {
+            writeRows(new ArrayList<>(rows.values()));
+        }
+    }
+
+    private static void writeRows(List<String[]> rows) throws IOException {
+        rows.sort((a, b) -> Long.compare(Long.parseLong(b[1]), Long.parseLong(a[1])));
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/" + SUMMARY))) {
+            bw.write(HEADER);
+            bw.newLine();
+            for (String[] row : rows) {
+                bw.write(String.join("\t", row));
+                bw.newLine();
+            }
+        }
+    }
+
+    private static String oneLine(String sql) {
+        return BLANK.matcher(sql).replaceAll(" ").trim();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FE endpoints of FE_ENDPOINTS, or the single FE of CONNECT_URL and HTTP_PORT. In the A/B mode the FEs of the
+ * second cluster (FE_ENDPOINTS_B, or CONNECT_URL_B and HTTP_PORT_B) are leased separately by CLUSTER_B.
+ *
+ * A lease picks the healthy FE with the least outstanding queries and gives the session of the calling thread to
+ * that FE, so one thread has at most one connection per FE. The profile of a query is fetched through the same
+ * session, from the FE which ran it. A FE is dropped when a health check or FE_MAX_FAILURES connection errors in
+ * a row fail, and taken back when a health check passes again.
+ */
+public class FrontendPool {
+    private static final Logger LOGGER = LogManager.getLogger(FrontendPool.class);
+
+    public static final int CLUSTER_A = 0;
+    public static final int CLUSTER_B = 1;
+
+    private static final List<Frontend> FRONTENDS = new ArrayList<>();
+    private static final List<StarrocksSession> SESSIONS = Collections.synchronizedList(new ArrayList<>());
+    private static final ThreadLocal<Map<Frontend, StarrocksSession>> THREAD_SESSIONS =
+            ThreadLocal.withInitial(HashMap::new);
+
+    private static ScheduledExecutorService checker;
+
+    static class Frontend {
+        final int cluster;
+        final String name;
+        final String url;
+        final String ip;
+        final int httpPort;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile boolean healthy = true;
+
+        Frontend(int cluster, String name, String url, String ip, int httpPort) {
+            this.cluster = cluster;
+            this.name = name;
+            this.url = url;
+            this.ip = ip;
+            this.httpPort = httpPort;
+        }
+    }
+
+    /**
+     * A session on one FE for the duration of one query
+     */
+    public static class Lease implements Closeable {
+        private final Frontend frontend;
+        private final StarrocksSession session;
+
+        private Lease(Frontend frontend, StarrocksSession session) {
+            this.frontend = frontend;
+            this.session = session;
+        }
+
+        public StarrocksSession getSession() {
+            return session;
+        }
+
+        public String getFrontend() {
+            return frontend.name;
+        }
+
+        /**
+         * Call after a failed query: a broken connection is closed and counted against the FE
+         */
+        public void checkConnection() {
+            if (session.isValid()) {
+                frontend.failures.set(0);
+                return;
+            }
+            THREAD_SESSIONS.get().remove(frontend);
+            SESSIONS.remove(session);
+            session.close();
+            failure(frontend);
+        }
+
+        @Override
+        public void close() {
+            frontend.outstanding.decrementAndGet();
+        }
+    }
+
+    public static synchronized void init() {
+        if (!FRONTENDS.isEmpty()) {
+            return;
+        }
+        addCluster(CLUSTER_A, Config.FE_ENDPOINTS, Config.CONNECT_URL, Config.IP, Config.HTTP_PORT);
+        if (!Config.CONNECT_URL_B.isEmpty()) {
+            addCluster(CLUSTER_B, Config.FE_ENDPOINTS_B, Config.CONNECT_URL_B, Config.IP_B, Config.HTTP_PORT_B);
+        }
+        for (Frontend fe : FRONTENDS) {
+            Metrics.registerQueue("fe_" + fe.name, () -> fe.outstanding.get());
+        }
+        LOGGER.info("{} FE endpoints", FRONTENDS.size());
+
+        if ((size(CLUSTER_A) > 1 || size(CLUSTER_B) > 1) && Config.FE_HEALTH_INTERVAL_MS > 0) {
+            checker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "fe-health-check");
+                t.setDaemon(true);
+                return t;
+            });
+            checker.scheduleWithFixedDelay(FrontendPool::checkHealth, Config.FE_HEALTH_INTERVAL_MS,
+                    Config.FE_HEALTH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void addCluster(int cluster, String endpoints, String connectUrl, String ip, int httpPort) {
+        if (endpoints.isEmpty()) {
+            FRONTENDS.add(new Frontend(cluster, ip + ":" + httpPort, connectUrl, ip, httpPort));
+            return;
+        }
+        // host:query_port:http_port
+        for (String endpoint : endpoints.split(",")) {
+            String[] s = endpoint.trim().split(":");
+            String url = connectUrl.replaceFirst("//[^/]+", "//" + s[0] + ":" + s[1]);
+            FRONTENDS.add(new Frontend(cluster, s[0] + ":" + s[1], url, s[0], Integer.parseInt(s[2])));
+        }
+    }
+
+    private static int size(int cluster) {
+        int size = 0;
+        for (Frontend fe : FRONTENDS) {
+            if (fe.cluster == cluster) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public static void stop() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        synchronized (SESSIONS) {
+            for (StarrocksSession session : SESSIONS) {
+                session.close();
+            }
+            SESSIONS.clear();
+        }
+    }
+
+    public static Lease lease() throws Exception {
+        return lease(CLUSTER_A);
+    }
+
+    /**
+     * @throws IllegalStateException if no FE of the cluster is healthy
+     */
+    public static Lease lease(int cluster) throws Exception {
+        Exception last = null;
+        int frontends = size(cluster);
+        for (int attempt = 0; attempt < frontends; attempt++) {
+            Frontend fe = pick(cluster);
+            fe.outstanding.incrementAndGet();
+            try {
+                StarrocksSession session = THREAD_SESSIONS.get().get(fe);
+                if (session == null) {
+                    session = new StarrocksSession(fe.url, fe.ip, fe.httpPort);
+                    SESSIONS.add(session);
+                    THREAD_SESSIONS.get().put(fe, session);
+                }
+                return new Lease(fe, session);
+            } catch (Exception e) {
+                fe.outstanding.decrementAndGet();
+                LOGGER.warn("connect FE {} failed", fe.name, e);
+                failure(fe);
+                last = e;
+            }
+        }
+        throw last != null ? last : new IllegalStateException("no healthy FE");
+    }
+
+    private static Frontend pick(int cluster) {
+        Frontend best = null;
+        for (Frontend fe : FRONTENDS) {
+            if (fe.cluster == cluster && fe.healthy
+                    && (best == null || fe.outstanding.get() < best.outstanding.get())) {
+                best = fe;
+            }
+        }
+        if (best == null) {
+            throw new IllegalStateException("no healthy FE");
+        }
+        return best;
+    }
+
+    private static void failure(Frontend fe) {
+        // the only FE of a cluster is never dropped, its errors are reported by the queries
+        if (fe.failures.incrementAndGet() >= Config.FE_MAX_FAILURES && size(fe.cluster) > 1 && fe.healthy) {
+            fe.healthy = false;
+            LOGGER.warn("drop FE {} after {} connection failures", fe.name, fe.failures.get());
+        }
+    }
+
+    private static void checkHealth() {
+        for (Frontend fe : FRONTENDS) {
+            if (size(fe.cluster) <= 1) {
+                continue;
+            }
+            boolean ok;
+            try (Connection connection = DriverManager.getConnection(fe.url, Config.USER, Config.PASS);
+                    Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout((int) Math.max(1, Config.FE_HEALTH_INTERVAL_MS / 1000));
+                statement.executeQuery("select 1").close();
+                ok = true;
+            } catch (Exception e) {
+                LOGGER.debug("health check of FE {} failed", fe.name, e);
+                ok = false;
+            }
+
+            if (ok && !fe.healthy) {
+                fe.failures.set(0);
+                fe.healthy = true;
+                LOGGER.info("FE {} is healthy again", fe.name);
+            } else if (!ok && fe.healthy) {
+                fe.healthy = false;
+                LOGGER.warn("drop FE {}, health check failed", fe.name);
+            }
+        }
+    }
+}
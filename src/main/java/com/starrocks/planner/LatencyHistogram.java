@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in milliseconds. Values below 16ms are kept exactly, larger values
+ * fall into 8 sub-buckets per power of two, so any percentile is within 12.5% of the real value.
+ * Recording is lock free, histograms of the same layout can be merged.
+ */
+public class LatencyHistogram {
+    private static final int EXACT = 16;
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    private static final int FIRST_OCTAVE = 4;
+    static final int BUCKETS = EXACT + (64 - FIRST_OCTAVE) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    static int bucketOf(long value) {
+        if (value < EXACT) {
+            return (int) Math.max(0, value);
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (octave - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return EXACT + (octave - FIRST_OCTAVE) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBoundOf(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int octave = (bucket - EXACT) / SUB_BUCKETS + FIRST_OCTAVE;
+        int sub = (bucket - EXACT) % SUB_BUCKETS;
+        return (1L << octave) + ((long) sub << (octave - SUB_BITS));
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        int octave = (bucket - EXACT) / SUB_BUCKETS + FIRST_OCTAVE;
+        return lowerBoundOf(bucket) + (1L << (octave - SUB_BITS)) - 1;
+    }
+
+    public void record(long value) {
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.buckets.get(i);
+            if (c != 0) {
+                buckets.addAndGet(i, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        min.accumulateAndGet(other.min.get(), Math::min);
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return count.get() == 0 ? 0 : max.get();
+    }
+
+    public long getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : sum.get() / c;
+    }
+
+    long getBucket(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * @param percentile in range [0, 100]
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                long mid = (lowerBoundOf(i) + upperBoundOf(i)) / 2;
+                return Math.max(getMin(), Math.min(getMax(), mid));
+            }
+        }
+        return getMax();
+    }
+}
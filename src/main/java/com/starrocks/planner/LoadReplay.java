@@ -0,0 +1,296 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replay the audit log with its original timing and concurrency.
+ *
+ * Queries are started at their original start time (log timestamp - Time) divided by the speed factor, by an
+ * open-loop dispatcher: a slow cluster doesn't slow down the arrivals, queries queue up instead. Queries of the
+ * same Client ran one after another in the original workload, so they are executed in order on one lane, and
+ * lanes of different clients run concurrently on LOAD_SESSIONS threads, each query on the least busy FE.
+ *
+ * Each planner setting is replayed in its own pass, and the latency of every digest is written in the
+ * `-benchmark` format to load_replay_{planner}.txt, so two passes can be compared with `-cmp`.
+ */
+public class LoadReplay {
+    private static final Logger LOGGER = LogManager.getLogger(LoadReplay.class);
+
+    private final String path;
+    private final double speed;
+    private final String planner;
+
+    private final Map<String, BenchmarkTest.TimeAndCount> digestLatency = new ConcurrentHashMap<>();
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram serviceLatency = new LatencyHistogram();
+    // service time + time queued behind the schedule, the latency a client would have seen
+    private final LatencyHistogram responseLatency = new LatencyHistogram();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private ExecutorService pool;
+    // original start time of the first query and its wall clock time in the replay
+    private long firstStart = -1;
+    private long wallStart;
+
+    private static class Task {
+        final String db;
+        final String sql;
+        final AuditRecord record;
+        long scheduledNanos;
+
+        Task(String db, String sql, AuditRecord record) {
+            this.db = db;
+            this.sql = sql;
+            this.record = record;
+        }
+    }
+
+    // queries of one client, executed in order
+    private static class Lane {
+        final Queue<Task> tasks = new ArrayDeque<>();
+        boolean running = false;
+    }
+
+    private LoadReplay(String path, double speed, String planner) {
+        this.path = path;
+        this.speed = speed;
+        this.planner = planner;
+    }
+
+    /**
+     * @param planner "old", "new" or "both"
+     */
+    public static void replay(String path, double speed, String planner) throws Exception {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        }
+
+        List<String> planners = new ArrayList<>();
+        if ("both".equals(planner)) {
+            planners.add("old");
+            planners.add("new");
+        } else if ("old".equals(planner) || "new".equals(planner)) {
+            planners.add(planner);
+        } else {
+            throw new IllegalArgumentException("unknown planner: " + planner);
+        }
+
+        for (String p : planners) {
+            new LoadReplay(path, speed, p).run();
+        }
+    }
+
+    private void run() throws Exception {
+        LOGGER.info("load replay with {} planner, speed {}, {} sessions", planner, speed, Config.LOAD_SESSIONS);
+        pool = Executors.newFixedThreadPool(Config.LOAD_SESSIONS);
+        Metrics.registerQueue("replay_" + planner, pending::get);
+
+        long replayStart = System.currentTimeMillis();
+        try {
+            warmUp();
+            dispatch();
+            pool.shutdown();
+            while (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.info("wait for {} queries", pending.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long wallTime = Math.max(1, System.currentTimeMillis() - replayStart);
+        LOGGER.info("load replay with {} planner done: {} queries, {} errors in {}s, max concurrency {}, "
+                        + "latency p50 {}ms p90 {}ms p99 {}ms max {}ms, response p99 {}ms",
+                planner, serviceLatency.getCount(), errors.get(), wallTime / 1000, maxRunning.get(),
+                serviceLatency.getPercentile(50), serviceLatency.getPercentile(90),
+                serviceLatency.getPercentile(99), serviceLatency.getMax(), responseLatency.getPercentile(99));
+        write();
+    }
+
+    /**
+     * Connect every thread before the replay, connection setup would delay the first queries
+     */
+    private void warmUp() throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(Config.LOAD_SESSIONS);
+        for (int i = 0; i < Config.LOAD_SESSIONS; i++) {
+            pool.execute(() -> {
+                try (FrontendPool.Lease lease = FrontendPool.lease()) {
+                    if ("new".equals(planner)) {
+                        lease.getSession().enableNewPlanner();
+                    } else {
+                        lease.getSession().disableNewPlanner();
+                    }
+                } catch (Exception e) {
+                    LOGGER.warn("connect failed", e);
+                } finally {
+                    ready.countDown();
+                    try {
+                        // hold the thread, so every task runs on its own thread
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        ready.await();
+    }
+
+    private void dispatch() throws Exception {
+        // the log is ordered by finish time, reorder by start time within a window
+        PriorityQueue<Task> reorder = new PriorityQueue<>(
+                Comparator.comparingLong((Task t) -> t.record.getStartTime()));
+        wallStart = System.nanoTime();
+
+        try (AuditLogReader reader = new AuditLogReader(path)) {
+            String auditLog;
+            while ((auditLog = reader.next()) != null) {
+                Optional<Pair<String, String>> sql = NewPlannerTest.getSQL(auditLog);
+                AuditRecord record = sql.isPresent() ? AuditRecord.parse(auditLog) : null;
+                if (record == null) {
+                    continue;
+                }
+
+                reorder.add(new Task(sql.get().getLeft(), sql.get().getRight(), record));
+                while (reorder.peek().record.getStartTime() <= record.timestamp - Config.LOAD_REORDER_MS) {
+                    schedule(reorder.poll());
+                }
+            }
+        }
+        while (!reorder.isEmpty()) {
+            schedule(reorder.poll());
+        }
+    }
+
+    private void schedule(Task task) throws InterruptedException {
+        long startTime = task.record.getStartTime();
+        if (firstStart < 0) {
+            firstStart = startTime;
+        }
+        // a record later than the reorder window is started right away
+        long scheduled = wallStart + (long) (Math.max(0, startTime - firstStart) * 1000000 / speed);
+        long wait = scheduled - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        task.scheduledNanos = scheduled;
+        pending.incrementAndGet();
+        submit(task);
+    }
+
+    private void submit(Task task) {
+        Lane lane = lanes.computeIfAbsent(task.record.client, k -> new Lane());
+        synchronized (lane) {
+            if (lane.running) {
+                lane.tasks.add(task);
+                return;
+            }
+            lane.running = true;
+        }
+        pool.execute(() -> runLane(lane, task));
+    }
+
+    private void runLane(Lane lane, Task first) {
+        Task task = first;
+        while (task != null) {
+            execute(task);
+            synchronized (lane) {
+                task = lane.tasks.poll();
+                if (task == null) {
+                    lane.running = false;
+                }
+            }
+        }
+    }
+
+    private void execute(Task task) {
+        int concurrency = running.incrementAndGet();
+        maxRunning.accumulateAndGet(concurrency, Math::max);
+        long lag = Math.max(0, (System.nanoTime() - task.scheduledNanos) / 1000000);
+        FrontendPool.Lease lease = null;
+        try {
+            lease = FrontendPool.lease();
+            StarrocksSession session = lease.getSession();
+            if ("new".equals(planner)) {
+                session.enableNewPlanner();
+            } else {
+                session.disableNewPlanner();
+            }
+            if (!task.db.isEmpty()) {
+                session.useDb(task.db);
+            }
+
+            long time = session.run(task.sql);
+            serviceLatency.record(time);
+            responseLatency.record(lag + time);
+            Metrics.recordLatency(planner, time);
+            Metrics.recordQuery(SQLog.ErrorType.SUCCESS);
+
+            BenchmarkTest.TimeAndCount tc = digestLatency.computeIfAbsent(task.record.digest,
+                    k -> new BenchmarkTest.TimeAndCount());
+            synchronized (tc) {
+                tc.touch(time);
+            }
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            Metrics.recordQuery(SQLog.ErrorType.OTHER);
+            LOGGER.warn("replay query failed: {}", task.sql, e);
+            if (lease != null) {
+                lease.checkConnection();
+            }
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+            running.decrementAndGet();
+            pending.decrementAndGet();
+        }
+    }
+
+    private void write() throws IOException {
+        String file = Config.OUTPUT_DIR + "/load_replay_" + planner + ".txt";
+        try (PrintStream out = new PrintStream(new FileOutputStream(file))) {
+            // CACHE_MODE is of the diff mode, the replay runs on the caches as it finds them
+            BenchmarkTest.print(digestLatency, false, "none", out);
+        }
+        LOGGER.info("write {} digests to {}", digestLatency.size(), file);
+    }
+}
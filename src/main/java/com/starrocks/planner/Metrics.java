@@ -0,0 +1,318 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.management.ObjectName;
+
+/**
+ * Process wide metrics of the harness, exported in prometheus text format on
+ * http://host:METRICS_PORT/metrics and as the MXBean com.starrocks.planner:type=Metrics.
+ */
+public class Metrics {
+    private static final Logger LOGGER = LogManager.getLogger(Metrics.class);
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final long START_MS = System.currentTimeMillis();
+
+    private static final AtomicLong QUERY_TOTAL = new AtomicLong();
+
+    private static final Map<SQLog.ErrorType, AtomicLong> TYPE_COUNTERS = new EnumMap<>(SQLog.ErrorType.class);
+
+    private static final Map<String, LatencyHistogram> PLANNER_LATENCY = new ConcurrentHashMap<>();
+
+    private static final AtomicLong RETRIES = new AtomicLong();
+
+    private static final AtomicLong PLAN_FLAGS = new AtomicLong();
+
+    private static final LatencyHistogram PROFILE_LATENCY = new LatencyHistogram();
+
+    private static final Map<String, LongSupplier> QUEUE_DEPTHS = new ConcurrentHashMap<>();
+
+    private static final AtomicLong BYTES_READ = new AtomicLong();
+
+    private static volatile long bytesTotal = 0;
+
+    private static volatile double queryRate = 0;
+
+    private static HttpServer server;
+
+    static {
+        for (SQLog.ErrorType type : SQLog.ErrorType.values()) {
+            TYPE_COUNTERS.put(type, new AtomicLong());
+        }
+    }
+
+    public static void init() {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-ticker");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(new RateTicker(), 5, 5, TimeUnit.SECONDS);
+
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new MetricsBean(), new ObjectName("com.starrocks.planner:type=Metrics"));
+        } catch (Exception e) {
+            LOGGER.warn("register metrics mbean failed", e);
+        }
+
+        if (Config.METRICS_PORT <= 0) {
+            return;
+        }
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(Config.METRICS_PORT), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "metrics-http");
+                t.setDaemon(true);
+                return t;
+            }));
+            server.start();
+            LOGGER.info("metrics endpoint started on port {}", Config.METRICS_PORT);
+        } catch (Exception e) {
+            LOGGER.warn("start metrics endpoint failed", e);
+        }
+    }
+
+    public static void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    public static void recordQuery(SQLog.ErrorType type) {
+        QUERY_TOTAL.incrementAndGet();
+        TYPE_COUNTERS.get(type).incrementAndGet();
+    }
+
+    public static void recordLatency(String planner, long ms) {
+        PLANNER_LATENCY.computeIfAbsent(planner, k -> new LatencyHistogram()).record(ms);
+    }
+
+    public static void recordRetry() {
+        RETRIES.incrementAndGet();
+    }
+
+    public static void recordPlanFlag() {
+        PLAN_FLAGS.incrementAndGet();
+    }
+
+    public static void recordProfileFetch(long ms) {
+        PROFILE_LATENCY.record(ms);
+    }
+
+    public static void registerQueue(String name, LongSupplier depth) {
+        QUEUE_DEPTHS.put(name, depth);
+    }
+
+    public static void updateProgress(long read, long total) {
+        BYTES_READ.set(read);
+        bytesTotal = total;
+    }
+
+    public static double getQueryRate() {
+        return queryRate;
+    }
+
+    /**
+     * Seconds left to the end of the input file, estimated by the read offset, -1 if unknown
+     */
+    public static long getEtaSeconds() {
+        long read = BYTES_READ.get();
+        long total = bytesTotal;
+        if (read <= 0 || total <= 0) {
+            return -1;
+        }
+        long elapsed = System.currentTimeMillis() - START_MS;
+        return (long) (elapsed / 1000.0 * Math.max(0, total - read) / read);
+    }
+
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder();
+        gauge(sb, "cbo_test_uptime_seconds", "Seconds since the harness started",
+                (System.currentTimeMillis() - START_MS) / 1000);
+
+        sb.append("# HELP cbo_test_queries_total Queries validated\n");
+        sb.append("# TYPE cbo_test_queries_total counter\n");
+        sb.append("cbo_test_queries_total ").append(QUERY_TOTAL.get()).append("\n");
+
+        sb.append("# HELP cbo_test_query_rate Queries validated per second over the last tick\n");
+        sb.append("# TYPE cbo_test_query_rate gauge\n");
+        sb.append("cbo_test_query_rate ").append(queryRate).append("\n");
+
+        sb.append("# HELP cbo_test_results_total Validated queries by result type\n");
+        sb.append("# TYPE cbo_test_results_total counter\n");
+        for (Map.Entry<SQLog.ErrorType, AtomicLong> e : TYPE_COUNTERS.entrySet()) {
+            sb.append("cbo_test_results_total{type=\"").append(e.getKey().toString().toLowerCase()).append("\"} ")
+                    .append(e.getValue().get()).append("\n");
+        }
+
+        sb.append("# HELP cbo_test_retries_total Queries run again after a transient error\n");
+        sb.append("# TYPE cbo_test_retries_total counter\n");
+        sb.append("cbo_test_retries_total ").append(RETRIES.get()).append("\n");
+
+        sb.append("# HELP cbo_test_plan_flagged_total Digests flagged by the plan-only screen\n");
+        sb.append("# TYPE cbo_test_plan_flagged_total counter\n");
+        sb.append("cbo_test_plan_flagged_total ").append(PLAN_FLAGS.get()).append("\n");
+
+        sb.append("# HELP cbo_test_query_latency_ms Query latency by planner\n");
+        sb.append("# TYPE cbo_test_query_latency_ms summary\n");
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(PLANNER_LATENCY).entrySet()) {
+            summary(sb, "cbo_test_query_latency_ms", "planner=\"" + e.getKey() + "\"", e.getValue());
+        }
+
+        sb.append("# HELP cbo_test_profile_fetch_ms Query profile fetch latency\n");
+        sb.append("# TYPE cbo_test_profile_fetch_ms summary\n");
+        summary(sb, "cbo_test_profile_fetch_ms", "", PROFILE_LATENCY);
+
+        sb.append("# HELP cbo_test_queue_depth Pending items of the harness queues\n");
+        sb.append("# TYPE cbo_test_queue_depth gauge\n");
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(QUEUE_DEPTHS).entrySet()) {
+            sb.append("cbo_test_queue_depth{queue=\"").append(e.getKey()).append("\"} ")
+                    .append(e.getValue().getAsLong()).append("\n");
+        }
+
+        gauge(sb, "cbo_test_input_read_bytes", "Bytes of the audit log consumed", BYTES_READ.get());
+        gauge(sb, "cbo_test_input_total_bytes", "Size of the audit log", bytesTotal);
+        gauge(sb, "cbo_test_eta_seconds", "Estimated seconds to finish the audit log", getEtaSeconds());
+        return sb.toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(" ").append(value).append("\n");
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (double q : QUANTILES) {
+            sb.append(name).append("{").append(prefix).append("quantile=\"").append(q).append("\"} ")
+                    .append(histogram.getPercentile(q * 100)).append("\n");
+        }
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        sb.append(name).append("_sum").append(suffix).append(" ").append(histogram.getSum()).append("\n");
+        sb.append(name).append("_count").append(suffix).append(" ").append(histogram.getCount()).append("\n");
+    }
+
+    private static class RateTicker implements Runnable {
+        private long lastCount = 0;
+        private long lastTime = System.currentTimeMillis();
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            long current = QUERY_TOTAL.get();
+            if (now > lastTime) {
+                queryRate = (current - lastCount) * 1000.0 / (now - lastTime);
+            }
+            lastCount = current;
+            lastTime = now;
+        }
+    }
+
+    public interface MetricsMXBean {
+        long getQueryCount();
+
+        double getQueryRate();
+
+        Map<String, Long> getResultCounts();
+
+        Map<String, Long> getQueueDepths();
+
+        long getOldPlannerP99();
+
+        long getNewPlannerP99();
+
+        long getProfileFetchP99();
+
+        long getEtaSeconds();
+    }
+
+    private static class MetricsBean implements MetricsMXBean {
+        @Override
+        public long getQueryCount() {
+            return QUERY_TOTAL.get();
+        }
+
+        @Override
+        public double getQueryRate() {
+            return queryRate;
+        }
+
+        @Override
+        public Map<String, Long> getResultCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            TYPE_COUNTERS.forEach((k, v) -> counts.put(k.toString(), v.get()));
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> getQueueDepths() {
+            Map<String, Long> depths = new TreeMap<>();
+            QUEUE_DEPTHS.forEach((k, v) -> depths.put(k, v.getAsLong()));
+            return depths;
+        }
+
+        @Override
+        public long getOldPlannerP99() {
+            LatencyHistogram h = PLANNER_LATENCY.get("old");
+            return h == null ? 0 : h.getPercentile(99);
+        }
+
+        @Override
+        public long getNewPlannerP99() {
+            LatencyHistogram h = PLANNER_LATENCY.get("new");
+            return h == null ? 0 : h.getPercentile(99);
+        }
+
+        @Override
+        public long getProfileFetchP99() {
+            return PROFILE_LATENCY.getPercentile(99);
+        }
+
+        @Override
+        public long getEtaSeconds() {
+            return Metrics.getEtaSeconds();
+        }
+    }
+}
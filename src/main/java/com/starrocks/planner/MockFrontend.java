@@ -0,0 +1,583 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in FE to load test the harness without a cluster. It speaks just enough of the MySQL protocol
+ * for the statements the harness sends (set, use, last_query_id(), explain, queries) and serves fake
+ * profiles on /query_profile.
+ *
+ * Query results are derived from the sql text, so both planners return the same rows. The result size and
+ * latency come from the script file (one `regex \t rows \t latency ms [\t variable=value]` per line, first match
+ * wins, a line with a session variable only matches when the session has that value) or the defaults, queries
+ * with enable_cbo = true take `slowdown` times longer.
+ */
+public class MockFrontend {
+    private static final Logger LOGGER = LogManager.getLogger(MockFrontend.class);
+
+    private static final String SERVER_VERSION = "5.1.0";
+
+    private static final int CHARSET_UTF8 = 33;
+    private static final int STATUS_AUTOCOMMIT = 0x0002;
+    private static final int CAPABILITIES = 0x0001 | 0x0002 | 0x0004 | 0x0008 | 0x0200 | 0x2000 | 0x8000 | 0x80000;
+
+    private static final int COM_QUIT = 0x01;
+    private static final int COM_INIT_DB = 0x02;
+    private static final int COM_QUERY = 0x03;
+
+    private static final int TYPE_DOUBLE = 0x05;
+    private static final int TYPE_LONGLONG = 0x08;
+    private static final int TYPE_VAR_STRING = 0xfd;
+
+    private final int port;
+    private final int httpPort;
+    private final long latencyMs;
+    private final int rows;
+    private final double slowdown;
+    private final List<Script> scripts = new ArrayList<>();
+
+    private final AtomicInteger connectionId = new AtomicInteger();
+    private final ExecutorService sessions = Executors.newCachedThreadPool();
+
+    private static class Script {
+        final Pattern pattern;
+        final int rows;
+        final long latencyMs;
+        // "name=value" the session must have, null for any session
+        final String variable;
+
+        Script(Pattern pattern, int rows, long latencyMs, String variable) {
+            this.pattern = pattern;
+            this.rows = rows;
+            this.latencyMs = latencyMs;
+            this.variable = variable;
+        }
+
+        boolean matches(Session session, String sql) {
+            if (variable != null) {
+                String[] s = variable.split("=", 2);
+                if (!s[1].trim().equalsIgnoreCase(session.variables.get(s[0].trim().toLowerCase(Locale.ROOT)))) {
+                    return false;
+                }
+            }
+            return pattern.matcher(sql).find();
+        }
+    }
+
+    public MockFrontend(int port, int httpPort, long latencyMs, int rows, double slowdown, String scriptPath)
+            throws IOException {
+        this.port = port;
+        this.httpPort = httpPort;
+        this.latencyMs = latencyMs;
+        this.rows = rows;
+        this.slowdown = slowdown;
+
+        if (scriptPath != null) {
+            try (BufferedReader br = new BufferedReader(new FileReader(scriptPath))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.trim().isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] s = line.split("\t");
+                    scripts.add(new Script(Pattern.compile(s[0], Pattern.CASE_INSENSITIVE | Pattern.DOTALL),
+                            Integer.parseInt(s[1].trim()), Long.parseLong(s[2].trim()),
+                            s.length > 3 ? s[3].trim() : null));
+                }
+            }
+        }
+    }
+
+    public void start() throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(httpPort), 0);
+        http.createContext("/query_profile", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            String queryId = query == null ? "" : query.replace("query_id=", "");
+            byte[] body = profilePage(queryId).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        http.setExecutor(Executors.newFixedThreadPool(4));
+        http.start();
+
+        LOGGER.info("mock fe listen on query port {}, http port {}", port, httpPort);
+        try (ServerSocket server = new ServerSocket(port)) {
+            while (true) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                sessions.submit(() -> serve(socket));
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Session session = new Session(connectionId.incrementAndGet());
+        try (Socket s = socket) {
+            Packets packets = new Packets(s.getInputStream(), s.getOutputStream());
+            packets.write(handshake(session.id));
+            packets.flush();
+            packets.read();
+            packets.write(ok());
+            packets.flush();
+
+            while (true) {
+                packets.reset();
+                byte[] command = packets.read();
+                if (command.length == 0 || command[0] == COM_QUIT) {
+                    return;
+                }
+
+                if (command[0] == COM_QUERY) {
+                    String sql = new String(command, 1, command.length - 1, StandardCharsets.UTF_8);
+                    query(session, sql, packets);
+                } else if (command[0] == COM_INIT_DB) {
+                    session.db = new String(command, 1, command.length - 1, StandardCharsets.UTF_8);
+                    packets.write(ok());
+                } else {
+                    packets.write(ok());
+                }
+                packets.flush();
+            }
+        } catch (EOFException e) {
+            // client closed
+        } catch (Exception e) {
+            LOGGER.warn("mock session {} failed", session.id, e);
+        }
+    }
+
+    private static class Session {
+        final int id;
+        String db = "";
+        boolean cbo = true;
+        String lastQueryId = "";
+        final Map<String, String> variables = new HashMap<>();
+
+        Session(int id) {
+            this.id = id;
+        }
+    }
+
+    private void query(Session session, String sql, Packets packets) throws Exception {
+        String stmt = sql.trim();
+        if (stmt.endsWith(";")) {
+            stmt = stmt.substring(0, stmt.length() - 1).trim();
+        }
+        String lower = stmt.toLowerCase(Locale.ROOT);
+
+        if (lower.startsWith("set ")) {
+            if (lower.matches("set\\s+enable_cbo\\s*=.*")) {
+                session.cbo = lower.substring(lower.indexOf('=') + 1).trim().matches("true|1|'true'");
+            }
+            int eq = lower.indexOf('=');
+            if (eq > 0) {
+                String name = lower.substring(4, eq).trim();
+                String value = lower.substring(eq + 1).trim().replace("'", "");
+                if (value.equals("default")) {
+                    session.variables.remove(name);
+                } else {
+                    session.variables.put(name, value);
+                }
+            }
+            packets.write(ok());
+        } else if (lower.startsWith("use ")) {
+            session.db = stmt.substring(4).trim();
+            packets.write(ok());
+        } else if (lower.contains("@@")) {
+            variables(session, stmt, packets);
+        } else if (lower.contains("last_query_id()")) {
+            resultSet(packets, new String[] {"query"}, new int[] {TYPE_VAR_STRING},
+                    new String[][] {{session.lastQueryId}});
+        } else if (lower.contains("_statistics_.")) {
+            statistics(packets);
+        } else if (lower.startsWith("explain")) {
+            resultSet(packets, new String[] {"EXPLAIN STRING"}, new int[] {TYPE_VAR_STRING}, explain(stmt));
+        } else if (lower.startsWith("select") || lower.startsWith("with")) {
+            data(session, stmt, packets);
+        } else {
+            packets.write(ok());
+        }
+    }
+
+    private void data(Session session, String sql, Packets packets) throws Exception {
+        int resultRows = rows;
+        long latency = latencyMs;
+        for (Script script : scripts) {
+            if (script.matches(session, sql)) {
+                resultRows = script.rows;
+                latency = script.latencyMs;
+                break;
+            }
+        }
+
+        Random random = new Random(sql.hashCode());
+        // +-20% jitter stable per sql text
+        latency = (long) (latency * (0.8 + random.nextDouble() * 0.4) * (session.cbo ? slowdown : 1));
+        if (latency > 0) {
+            Thread.sleep(latency);
+        }
+        session.lastQueryId = UUID.randomUUID().toString();
+
+        String[][] data = new String[resultRows][];
+        for (int i = 0; i < resultRows; i++) {
+            data[i] = new String[] {String.valueOf(random.nextInt(1000)), "v" + random.nextInt(100000),
+                    String.valueOf(random.nextInt(100000) / 100.0)};
+        }
+        resultSet(packets, new String[] {"k1", "k2", "v1"}, new int[] {TYPE_LONGLONG, TYPE_VAR_STRING, TYPE_DOUBLE},
+                data);
+    }
+
+    private void variables(Session session, String sql, Packets packets) throws IOException {
+        String select = sql.replaceAll("(?s)/\\*.*?\\*/", "").trim();
+        select = select.substring("select".length());
+        int from = select.toLowerCase(Locale.ROOT).indexOf(" from ");
+        if (from > 0) {
+            select = select.substring(0, from);
+        }
+
+        String[] items = select.split(",");
+        String[] names = new String[items.length];
+        String[] values = new String[items.length];
+        int[] types = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i].trim();
+            String[] alias = item.split("(?i)\\s+as\\s+");
+            names[i] = alias.length > 1 ? alias[1].trim() : item;
+            String name = alias[0].replaceAll("@@(session\\.|global\\.)?", "").trim().toLowerCase(Locale.ROOT);
+            values[i] = session.variables.containsKey(name) ? session.variables.get(name) : variable(name);
+            types[i] = TYPE_VAR_STRING;
+        }
+        resultSet(packets, names, types, new String[][] {values});
+    }
+
+    private static String variable(String name) {
+        switch (name) {
+            case "auto_increment_increment":
+            case "lower_case_table_names":
+            case "query_cache_size":
+                return name.equals("auto_increment_increment") ? "1" : "0";
+            case "character_set_client":
+            case "character_set_connection":
+            case "character_set_results":
+            case "character_set_server":
+                return "utf8";
+            case "collation_server":
+            case "collation_connection":
+                return "utf8_general_ci";
+            case "max_allowed_packet":
+                return "1048576000";
+            case "net_buffer_length":
+                return "16384";
+            case "net_write_timeout":
+                return "60";
+            case "wait_timeout":
+            case "interactive_timeout":
+                return "28800";
+            case "tx_isolation":
+            case "transaction_isolation":
+                return "REPEATABLE-READ";
+            case "time_zone":
+                return "SYSTEM";
+            case "system_time_zone":
+                return "UTC";
+            case "query_cache_type":
+                return "OFF";
+            case "license":
+                return "Apache License 2.0";
+            case "tx_read_only":
+            case "transaction_read_only":
+                return "0";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Column statistics of the mock table, three days old
+     */
+    private static void statistics(Packets packets) throws IOException {
+        String updateTime = LocalDateTime.now().minusDays(3).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        String[] names = {"table_id", "column_name", "db_id", "table_name", "db_name", "row_count", "data_size",
+                "distinct_count", "null_count", "max", "min", "update_time"};
+        int[] types = new int[names.length];
+        Arrays.fill(types, TYPE_VAR_STRING);
+        String[][] data = {
+                {"10001", "k1", "10000", "mock", "default_cluster:test", "1000", "8000", "1000", "0", "999", "0",
+                        updateTime},
+                {"10001", "k2", "10000", "mock", "default_cluster:test", "1000", "12000", "980", "0", "v99999",
+                        "v0", updateTime},
+                {"10001", "v1", "10000", "mock", "default_cluster:test", "1000", "8000", "1000", "20", "999.99",
+                        "0.0", updateTime},
+        };
+        resultSet(packets, names, types, data);
+    }
+
+    private static String[][] explain(String sql) {
+        String[] plan = {
+                "PLAN FRAGMENT 0",
+                " OUTPUT EXPRS:1: k1 | 2: k2 | 3: v1",
+                "  PARTITION: UNPARTITIONED",
+                "",
+                "  RESULT SINK",
+                "",
+                "  1:EXCHANGE",
+                "     cardinality: " + (Math.abs(sql.hashCode()) % 10000),
+                "",
+                "PLAN FRAGMENT 1",
+                " OUTPUT EXPRS:",
+                "  PARTITION: RANDOM",
+                "",
+                "  STREAM DATA SINK",
+                "    EXCHANGE ID: 01",
+                "    UNPARTITIONED",
+                "",
+                "  0:OlapScanNode",
+                "     TABLE: mock",
+                "     cardinality: " + (Math.abs(sql.hashCode()) % 10000),
+        };
+        String[][] rows = new String[plan.length][];
+        for (int i = 0; i < plan.length; i++) {
+            rows[i] = new String[] {plan[i]};
+        }
+        return rows;
+    }
+
+    private static String profilePage(String queryId) {
+        Random random = new Random(queryId.hashCode());
+        long scan = 1 + random.nextInt(200);
+        long exchange = 1 + random.nextInt(50);
+        return "<html><body><div><pre>Query:\n"
+                + "  Summary:\n"
+                + "     - Query ID: " + queryId + "\n"
+                + "     - Total: " + (scan + exchange) + "ms\n"
+                + "     - Query Type: Query\n"
+                + "     - Query State: EOF\n"
+                + "  Execution Profile " + queryId + ":(Active: " + (scan + exchange) + "ms, % non-child: 0.00%)\n"
+                + "    Fragment 0:\n"
+                + "      Instance " + queryId + " (host=TNetworkAddress(hostname:127.0.0.1, port:9060)):"
+                + "(Active: " + exchange + "ms, % non-child: 0.00%)\n"
+                + "         - PeakMemoryUsage: " + random.nextInt(1000) + ".00 KB\n"
+                + "        EXCHANGE_NODE (id=1):(Active: " + exchange + "ms, % non-child: 100.00%)\n"
+                + "           - BytesReceived: " + random.nextInt(1000) + ".00 KB\n"
+                + "           - RowsReturned: " + random.nextInt(10000) + "\n"
+                + "    Fragment 1:\n"
+                + "      Instance " + queryId + " (host=TNetworkAddress(hostname:127.0.0.1, port:9060)):"
+                + "(Active: " + scan + "ms, % non-child: 0.00%)\n"
+                + "         - PeakMemoryUsage: " + random.nextInt(1000) + ".00 KB\n"
+                + "        OLAP_SCAN_NODE (id=0):(Active: " + scan + "ms, % non-child: 100.00%)\n"
+                + "           - BytesRead: " + random.nextInt(1000) + ".00 MB\n"
+                + "           - RowsReturned: " + random.nextInt(10000) + "\n"
+                + "</pre></div></body></html>";
+    }
+
+    private static byte[] handshake(int id) {
+        Payload p = new Payload();
+        p.int1(10);
+        p.stringNul(SERVER_VERSION);
+        p.int4(id);
+        p.bytes("12345678".getBytes(StandardCharsets.US_ASCII));
+        p.int1(0);
+        p.int2(CAPABILITIES & 0xffff);
+        p.int1(CHARSET_UTF8);
+        p.int2(STATUS_AUTOCOMMIT);
+        p.int2(CAPABILITIES >>> 16);
+        p.int1(21);
+        p.bytes(new byte[10]);
+        p.bytes("123456789012".getBytes(StandardCharsets.US_ASCII));
+        p.int1(0);
+        p.stringNul("mysql_native_password");
+        return p.toByteArray();
+    }
+
+    private static byte[] ok() {
+        Payload p = new Payload();
+        p.int1(0);
+        p.lenenc(0);
+        p.lenenc(0);
+        p.int2(STATUS_AUTOCOMMIT);
+        p.int2(0);
+        return p.toByteArray();
+    }
+
+    private static byte[] eof() {
+        Payload p = new Payload();
+        p.int1(0xfe);
+        p.int2(0);
+        p.int2(STATUS_AUTOCOMMIT);
+        return p.toByteArray();
+    }
+
+    private static void resultSet(Packets packets, String[] names, int[] types, String[][] data) throws IOException {
+        Payload count = new Payload();
+        count.lenenc(names.length);
+        packets.write(count.toByteArray());
+
+        for (int i = 0; i < names.length; i++) {
+            Payload column = new Payload();
+            column.lenencString("def");
+            column.lenencString("");
+            column.lenencString("");
+            column.lenencString("");
+            column.lenencString(names[i]);
+            column.lenencString(names[i]);
+            column.int1(0x0c);
+            column.int2(CHARSET_UTF8);
+            column.int4(types[i] == TYPE_VAR_STRING ? 65533 : 20);
+            column.int1(types[i]);
+            column.int2(0);
+            column.int1(types[i] == TYPE_DOUBLE ? 31 : 0);
+            column.int2(0);
+            packets.write(column.toByteArray());
+        }
+        packets.write(eof());
+
+        for (String[] row : data) {
+            Payload p = new Payload();
+            for (String value : row) {
+                if (value == null) {
+                    p.int1(0xfb);
+                } else {
+                    p.lenencString(value);
+                }
+            }
+            packets.write(p.toByteArray());
+        }
+        packets.write(eof());
+    }
+
+    private static class Payload extends ByteArrayOutputStream {
+        void int1(int v) {
+            write(v & 0xff);
+        }
+
+        void int2(int v) {
+            int1(v);
+            int1(v >>> 8);
+        }
+
+        void int4(int v) {
+            int2(v);
+            int2(v >>> 16);
+        }
+
+        void bytes(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        void stringNul(String s) {
+            bytes(s.getBytes(StandardCharsets.UTF_8));
+            int1(0);
+        }
+
+        void lenenc(long v) {
+            if (v < 251) {
+                int1((int) v);
+            } else if (v < (1 << 16)) {
+                int1(0xfc);
+                int2((int) v);
+            } else if (v < (1 << 24)) {
+                int1(0xfd);
+                int2((int) v);
+                int1((int) (v >>> 16));
+            } else {
+                int1(0xfe);
+                int4((int) v);
+                int4((int) (v >>> 32));
+            }
+        }
+
+        void lenencString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            lenenc(b.length);
+            bytes(b);
+        }
+    }
+
+    private static class Packets {
+        private final DataInputStream in;
+        private final OutputStream out;
+        private int sequence = 0;
+
+        Packets(InputStream in, OutputStream out) {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            this.out = new BufferedOutputStream(out, 64 * 1024);
+        }
+
+        void reset() {
+            sequence = 0;
+        }
+
+        byte[] read() throws IOException {
+            byte[] header = new byte[4];
+            in.readFully(header);
+            int length = (header[0] & 0xff) | (header[1] & 0xff) << 8 | (header[2] & 0xff) << 16;
+            sequence = (header[3] & 0xff) + 1;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return payload;
+        }
+
+        void write(byte[] payload) throws IOException {
+            int offset = 0;
+            do {
+                int length = Math.min(payload.length - offset, 0xffffff);
+                out.write(length & 0xff);
+                out.write((length >>> 8) & 0xff);
+                out.write((length >>> 16) & 0xff);
+                out.write(sequence++ & 0xff);
+                out.write(payload, offset, length);
+                offset += length;
+            } while (offset < payload.length);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -24,19 +24,34 @@ import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.CommandLine;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NewPlannerTest {
     private static final Logger LOGGER = LogManager.getLogger(NewPlannerTest.class);
 
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     private static FileWriter replayWriter = null;
+    // outcome of every query of a shard, see ShardMerge
+    private static FileWriter outcomeWriter = null;
+
+    // A/B mode: planner of both clusters, null to diff the planners on one cluster
+    private static Boolean abNewPlanner = null;
+    private static ABReport abReport = null;
 
     public static void init() {
         File file = new File(Config.OUTPUT_DIR + "/" + Config.REPLAY_LOG);
@@ -48,7 +63,7 @@ public class NewPlannerTest {
         }
     }
 
-    private static void readAuditLog(String path) throws Exception {
+    private static void readAuditLog(String path, Shard shard) throws Exception {
         File configFile = new File(path);
         if (!configFile.exists()) {
             LOGGER.error("Couldn't find the fe.audit.log file");
@@ -56,76 +71,196 @@ public class NewPlannerTest {
 
         LOGGER.info("read file start");
         int count = 0;
-        int error = 0;
-        int lineNum = 0;
-
-        DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        try (BufferedReader br = new BufferedReader(new FileReader(configFile))) {
-            String line;
-            StringBuilder auditBuilder = new StringBuilder();
-            boolean isStart;
-            while ((line = br.readLine()) != null) {
-                lineNum++;
-                isStart = line.contains("query] |Client");
-
-                if (!isStart) {
-                    auditBuilder.append(line).append(" ");
-                    continue;
+        AtomicInteger error = new AtomicInteger();
+        long bytesTotal = configFile.length();
+        long rangeStart = shard == null ? 0 : shard.rangeStart(bytesTotal);
+        long rangeEnd = shard == null ? bytesTotal : shard.rangeEnd(bytesTotal);
+        if (shard != null) {
+            LOGGER.info("shard {}, bytes [{}, {})", shard, rangeStart, rangeEnd);
+            outcomeWriter = new FileWriter(Config.OUTPUT_DIR + "/" + ShardMerge.OUTCOMES);
+        }
+        Map<Long, Integer> digestSamples = new HashMap<>();
+        ShapeCoverage shapeCoverage = Config.SAMPLE_PER_SHAPE > 0 ? new ShapeCoverage() : null;
+        ExecutorService pool = Config.DIFF_THREADS > 1 ? Executors.newFixedThreadPool(Config.DIFF_THREADS) : null;
+        Semaphore inflight = new Semaphore(Math.max(1, Config.DIFF_THREADS * 2));
+
+        try (AuditSource reader = openAuditLog(path, shard, digestSamples)) {
+            reader.skipTo(rangeStart);
+            String auditLog;
+            while ((auditLog = reader.next()) != null) {
+                if (reader.getRecordOffset() >= rangeEnd) {
+                    break;
                 }
-
-                if (auditBuilder.length() == 0) {
-                    auditBuilder.append(line).append(" ");
+                Metrics.updateProgress(reader.getPosition() - rangeStart, rangeEnd - rangeStart);
+                Optional<Pair<String, String>> sql = getSQL(auditLog);
+                if (!sql.isPresent() || !inReplayWindow(auditLog)) {
                     continue;
                 }
-
-                String auditLog = auditBuilder.toString();
-                Optional<Pair<String, String>> sql = getSQL(auditLog);
-                if (!sql.isPresent()) {
-                    auditBuilder = new StringBuilder();
+                if (shard != null && !shard.ownsDigest(SqlDigest.hash64(sql.get().getRight()))) {
                     continue;
                 }
 
-                LocalDateTime time = LocalDateTime.parse(auditLog.substring(0, auditLog.indexOf(",")), DATE_TIME_FORMATTER);
-                if (time.getHour() < 8) {
-                    continue;
+                if (Config.SAMPLE_PER_DIGEST > 0) {
+                    int samples = digestSamples.merge(SqlDigest.hash64(sql.get().getRight()), 1, Integer::sum);
+                    if (samples > Config.SAMPLE_PER_DIGEST) {
+                        continue;
+                    }
                 }
 
-                try {
-                    SQLDiffer differ = new SQLDiffer(sql.get().getLeft(), sql.get().getRight());
-                    SQLog log = differ.validate();
-                    log.setId(lineNum);
-                    log.write();
+                String digest = null;
+                if (shapeCoverage != null) {
+                    AuditRecord record = AuditRecord.parse(auditLog);
+                    digest = record != null ? record.digest : SqlDigest.digest(sql.get().getRight());
+                }
 
-                    if (!log.success()) {
-                        writeReplayLog(auditLog);
+                String line = auditLog;
+                String queryDigest = digest;
+                long lineNum = reader.getRecordLine();
+                Runnable task = () -> {
+                    // the shapes are explained by the diff threads, not by the reader
+                    String shape = null;
+                    if (shapeCoverage != null) {
+                        shape = shapeCoverage.shapeOf(queryDigest, sql.get().getLeft(), sql.get().getRight());
+                        if (!shapeCoverage.admit(shape)) {
+                            return;
+                        }
                     }
-
-                    error += log.success() ? 0 : 1;
-                } catch (Exception e) {
-                    LOGGER.warn("diff audit exception. line: {} ", auditLog, e);
-                    error++;
+                    // a failed explain is clustered by digest
+                    String clusterShape = shape == null || ShapeCoverage.hasError(shape) ? null : shape;
+                    if (!diff(sql.get().getLeft(), sql.get().getRight(), line, lineNum, clusterShape)) {
+                        error.incrementAndGet();
+                        if (shape != null) {
+                            shapeCoverage.failed(shape);
+                        }
+                    }
+                };
+                if (pool == null) {
+                    task.run();
+                } else {
+                    inflight.acquire();
+                    pool.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            inflight.release();
+                        }
+                    });
                 }
 
                 count++;
                 if (count % 1000 == 0) {
-                    LOGGER.info("test sql {}, error {}.", count, error);
+                    LOGGER.info("test sql {}, error {}, {} sql/s, eta {}s.", count, error.get(),
+                            String.format("%.2f", Metrics.getQueryRate()), Metrics.getEtaSeconds());
                 }
-
-                // clear audit
-                auditBuilder = new StringBuilder();
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            if (outcomeWriter != null) {
+                outcomeWriter.close();
             }
         }
 
+        if (shapeCoverage != null) {
+            shapeCoverage.write();
+        }
+        FailureClusters.write();
         LOGGER.info("read file end");
     }
 
-    private static void writeReplayLog(String line) throws IOException {
+    /**
+     * With a sidecar index, the records the loop of readAuditLog would drop by their flags, their shard or
+     * SAMPLE_PER_DIGEST are skipped without reading them. The loop still checks all of them on the records read.
+     */
+    private static AuditSource openAuditLog(String path, Shard shard, Map<Long, Integer> digestSamples)
+            throws IOException {
+        AuditIndex index = AuditIndex.open(path);
+        if (index == null) {
+            return new AuditLogReader(path);
+        }
+        return index.source(e -> e.is(AuditIndex.DIFFABLE) && e.is(AuditIndex.IN_WINDOW)
+                && (shard == null || shard.ownsDigest(e.sqlHash))
+                && (Config.SAMPLE_PER_DIGEST <= 0
+                || digestSamples.getOrDefault(e.sqlHash, 0) < Config.SAMPLE_PER_DIGEST));
+    }
+
+    /**
+     * Diff the query under both planners, or on both clusters in the A/B mode, and write its result
+     *
+     * @return true if the query has no error
+     */
+    static boolean diff(String db, String sql, String auditLog, long line) {
+        return diff(db, sql, auditLog, line, null);
+    }
+
+    /**
+     * @param shape plan shape pair of SAMPLE_PER_SHAPE, clusters the failure by shape instead of by digest
+     */
+    static boolean diff(String db, String sql, String auditLog, long line, String shape) {
+        try (FrontendPool.Lease lease = FrontendPool.lease();
+                FrontendPool.Lease leaseB = abNewPlanner == null ? null : FrontendPool.lease(FrontendPool.CLUSTER_B)) {
+            SQLDiffer differ = leaseB == null ? new SQLDiffer(lease.getSession(), db, sql)
+                    : new SQLDiffer(new SQLDiffer.Side(lease.getSession(), abNewPlanner),
+                    new SQLDiffer.Side(leaseB.getSession(), abNewPlanner), db, sql);
+            differ.setShape(shape);
+            SQLog log = differ.validate();
+            log.setId(line);
+            log.write();
+
+            if (!log.success()) {
+                lease.checkConnection();
+                if (leaseB != null) {
+                    leaseB.checkConnection();
+                }
+                writeReplayLog(auditLog);
+            }
+            if (abReport != null) {
+                abReport.record(line, sql, log);
+            }
+            writeOutcome(line, log.getType(), log.getFileId(), log.success() ? "" : auditLog);
+
+            Metrics.recordQuery(log.getType());
+            return log.success();
+        } catch (Exception e) {
+            LOGGER.warn("diff audit exception. line: {} ", auditLog, e);
+            Metrics.recordQuery(SQLog.ErrorType.OTHER);
+            try {
+                writeOutcome(line, SQLog.ErrorType.OTHER, 0, "");
+            } catch (IOException ex) {
+                LOGGER.warn("write outcome failed", ex);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * line \t error type \t file number \t audit record of the replay log
+     */
+    private static synchronized void writeOutcome(long line, SQLog.ErrorType type, long fileId, String auditLog)
+            throws IOException {
+        if (null != outcomeWriter) {
+            outcomeWriter.append(String.valueOf(line)).append('\t').append(type.toString()).append('\t')
+                    .append(String.valueOf(fileId)).append('\t').append(auditLog).append("\n");
+        }
+    }
+
+    /**
+     * Only queries logged from 8 o'clock are replayed
+     */
+    static boolean inReplayWindow(String auditLog) {
+        LocalDateTime time = LocalDateTime.parse(auditLog.substring(0, auditLog.indexOf(",")), DATE_TIME_FORMATTER);
+        return time.getHour() >= 8;
+    }
+
+    private static synchronized void writeReplayLog(String line) throws IOException {
         if (null != replayWriter) {
             replayWriter.append(line).append("\n");
         }
     }
 
-    private static Optional<Pair<String, String>> getSQL(String auditLog) {
+    static Optional<Pair<String, String>> getSQL(String auditLog) {
         String[] strings = auditLog.split("\\|");
         if (strings.length < 14) {
             return Optional.empty();
@@ -166,32 +301,169 @@ public class NewPlannerTest {
         options.addOption("benchmark", false, "Print benchmark information");
         options.addOption("diff", false, "Diff result with new and old planner");
         options.addOption("f", "file", true, "Audit file path");
+        options.addOption("index", false, "Write the sidecar index of the audit log, used by later runs on it");
+        options.addOption("passes", true, "Benchmark one part of the digests per pass over the file, default 1");
+        options.addOption("snapshot", true, "Also write the -benchmark statistics to a binary snapshot file");
+        options.addOption("trend", true, "Latency trend of a digest over the snapshots of -f, files or folders");
+        options.addOption("days", true, "Only the snapshots of the last days for -trend, default all");
         options.addOption("cmp", false, "Performance comparison");
         options.addOption("ov", true, "Performance comparison");
         options.addOption("nv", true, "Performance comparison");
+        options.addOption("budget", true, "Diff the heaviest digests first within a time budget, e.g. 2h, 90m");
+        options.addOption("replay", false, "Replay the audit log with its original timing and concurrency");
+        options.addOption("ab", false, "Diff cluster A (CONNECT_URL) against cluster B (CONNECT_URL_B)");
+        options.addOption("speed", true, "Replay speed factor, default 1.0");
+        options.addOption("planner", true,
+                "Planner of the replay: old, new or both, default both. Of the A/B and matrix modes: old or new, "
+                        + "default new. Of the workload report: old, new or sql, default new");
+        options.addOption("planonly", "plan-only", false, "Explain both planners only and flag plan changes");
+        options.addOption("shard", true, "Only the shard i/n of the audit log, i is 0-based");
+        options.addOption("shardby", true, "Shard by digest or range, default digest");
+        options.addOption("merge", true, "Merge the outputs of shards, folders or -benchmark files separated by ','");
+        options.addOption("matrix", false, "Run sampled queries under every combination of the MATRIX variables");
+        options.addOption("workload", false, "Report the joins, operators, tables and functions of the workload");
+        options.addOption("build", true, "FE build label of the plan cache, default current_version()");
+        options.addOption("baseline", true, "FE build the plan-only mode compares with, default the last other build");
+        options.addOption("mockfe", false, "Start a stand-in FE for offline load test of the harness");
+        options.addOption("port", true, "Mock FE query port, default 9030");
+        options.addOption("httpport", true, "Mock FE http port, default 8030");
+        options.addOption("latency", true, "Mock FE query latency in ms, default 10");
+        options.addOption("rows", true, "Mock FE result rows, default 100");
+        options.addOption("slowdown", true, "Mock FE latency factor of the new planner, default 1.0");
+        options.addOption("script", true, "Mock FE result script, lines of: regex \\t rows \\t latency ms");
 
         CommandLine commandLine = parser.parse(options, args);
 
-        if (commandLine.hasOption("benchmark")) {
-            BenchmarkTest.bench(commandLine.getOptionValue("file"));
+        Shard shard = commandLine.hasOption("shard")
+                ? Shard.parse(commandLine.getOptionValue("shard"), commandLine.getOptionValue("shardby")) : null;
+        if (shard != null && commandLine.hasOption("budget")) {
+            // the priorities of the budget need the profile of the whole log
+            throw new IllegalArgumentException("-shard is not supported with -budget");
+        }
+
+        if (commandLine.hasOption("index")) {
+            AuditIndex.build(commandLine.getOptionValue("file"));
+        } else if (commandLine.hasOption("benchmark") && commandLine.hasOption("merge")) {
+            BenchmarkTest.merge(Arrays.asList(commandLine.getOptionValue("merge").split(",")),
+                    commandLine.getOptionValue("snapshot"));
+        } else if (commandLine.hasOption("benchmark")) {
+            BenchmarkTest.bench(commandLine.getOptionValue("file"), shard, commandLine.getOptionValue("snapshot"),
+                    Integer.parseInt(commandLine.getOptionValue("passes", "1")));
+        } else if (commandLine.hasOption("trend")) {
+            BenchmarkSnapshot.trend(commandLine.getOptionValue("trend"), commandLine.getOptionValue("file"),
+                    Integer.parseInt(commandLine.getOptionValue("days", "0")), System.out);
+        } else if (commandLine.hasOption("merge")) {
+            try {
+                List<String> dirs = Arrays.asList(commandLine.getOptionValue("merge").split(","));
+                ShardMerge.checkDirs(dirs);
+                Config.init();
+                SQLog.init();
+                ShardMerge.merge(dirs);
+            } catch (Throwable e) {
+                LOGGER.error("error : " + e.getMessage(), e);
+            }
         } else if (commandLine.hasOption("cmp")){
             BenchmarkCmp.cmp(commandLine.getOptionValue("ov"), commandLine.getOptionValue("nv"));
-        } else if (commandLine.hasOption('d')) {
+        } else if (commandLine.hasOption("replay")) {
+            try {
+                Config.init();
+                Metrics.init();
+                FrontendPool.init();
+                LoadReplay.replay(commandLine.getOptionValue("file"),
+                        Double.parseDouble(commandLine.getOptionValue("speed", "1.0")),
+                        commandLine.getOptionValue("planner", "both"));
+            } catch (Throwable e) {
+                LOGGER.error("error : " + e.getMessage(), e);
+            } finally {
+                FrontendPool.stop();
+                Metrics.stop();
+            }
+        } else if (commandLine.hasOption("planonly")) {
+            try {
+                Config.init();
+                Metrics.init();
+                FrontendPool.init();
+                PlanScreen.screen(commandLine.getOptionValue("file"), commandLine.getOptionValue("build"),
+                        commandLine.getOptionValue("baseline"));
+            } catch (Throwable e) {
+                LOGGER.error("error : " + e.getMessage(), e);
+            } finally {
+                FrontendPool.stop();
+                Metrics.stop();
+            }
+        } else if (commandLine.hasOption("matrix")) {
+            try {
+                Config.init();
+                Metrics.init();
+                FrontendPool.init();
+                SessionMatrix.run(commandLine.getOptionValue("file"),
+                        !"old".equals(commandLine.getOptionValue("planner", "new")));
+            } catch (Throwable e) {
+                LOGGER.error("error : " + e.getMessage(), e);
+            } finally {
+                FrontendPool.stop();
+                Metrics.stop();
+            }
+        } else if (commandLine.hasOption("workload")) {
+            String planner = commandLine.getOptionValue("planner", "new");
+            try {
+                Config.init();
+                Metrics.init();
+                if (!planner.equals("sql")) {
+                    FrontendPool.init();
+                }
+                WorkloadReport.analyze(commandLine.getOptionValue("file"), planner);
+            } catch (Throwable e) {
+                LOGGER.error("error : " + e.getMessage(), e);
+            } finally {
+                FrontendPool.stop();
+                Metrics.stop();
+            }
+        } else if (commandLine.hasOption("mockfe")) {
+            new MockFrontend(Integer.parseInt(commandLine.getOptionValue("port", "9030")),
+                    Integer.parseInt(commandLine.getOptionValue("httpport", "8030")),
+                    Long.parseLong(commandLine.getOptionValue("latency", "10")),
+                    Integer.parseInt(commandLine.getOptionValue("rows", "100")),
+                    Double.parseDouble(commandLine.getOptionValue("slowdown", "1.0")),
+                    commandLine.getOptionValue("script")).start();
+        } else {
             try {
                 Thread.sleep(5000);
                 Config.init();
                 SQLog.init();
                 NewPlannerTest.init();
+                Metrics.init();
 
                 LOGGER.info("config init done");
-                String logPath = args[0];
+                String logPath = commandLine.getOptionValue("file");
 
                 new StarrocksUtils().init();
+                if (commandLine.hasOption("ab")) {
+                    if (Config.CONNECT_URL_B.isEmpty()) {
+                        throw new IllegalArgumentException("CONNECT_URL_B of cluster B is not configured");
+                    }
+                    abNewPlanner = !"old".equals(commandLine.getOptionValue("planner", "new"));
+                    abReport = new ABReport();
+                }
+                FrontendPool.init();
                 LOGGER.info("connection init done");
                 StarrocksUtils.exportStatistics();
-                readAuditLog(logPath);
+                if (commandLine.hasOption("budget")) {
+                    BudgetReplay.replay(logPath, commandLine.getOptionValue("budget"));
+                } else {
+                    readAuditLog(logPath, shard);
+                }
+                if (abReport != null) {
+                    abReport.write();
+                }
             } catch (Throwable e) {
                 LOGGER.error("error : " + e.getMessage(), e);
+            } finally {
+                FrontendPool.stop();
+                Metrics.stop();
+                if (replayWriter != null) {
+                    replayWriter.close();
+                }
             }
         }
     }
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plan shape of an `explain` output: the operator tree with tables, join types, aggregate functions and data
+ * partitioning, without literals, slot ids, node ids, cardinalities and costs. Queries of different digests
+ * often have the same shape, e.g. "where a = 1" and "where b > 'x'" on the same table.
+ *
+ * Works on the old planner's `explain verbose` and the new planner's `explain costs` output.
+ */
+public final class PlanFingerprint {
+    // "0:OlapScanNode", "  |----5:HASH JOIN", "  4:AGGREGATE (update finalize)"
+    private static final Pattern NODE = Pattern.compile(
+            "^([\\s|-]*)\\d+:([A-Za-z][A-Za-z_ ]*[A-Za-z]( \\([a-z ]+\\))?)");
+    private static final Pattern FRAGMENT = Pattern.compile("^\\s*PLAN FRAGMENT \\d+");
+    private static final Pattern DETAIL = Pattern.compile(
+            "^[\\s|]*(TABLE|join op|PARTITION|aggregate|output|colocate|distribute):\\s*(.*)$");
+    // literals and ids inside the kept lines
+    private static final Pattern LITERAL = Pattern.compile("'[^']*'|\"[^\"]*\"|\\b\\d+(\\.\\d+)?\\b");
+    private static final Pattern SLOT = Pattern.compile("\\b\\d+:\\s*");
+    // function names of "aggregate: sum[(3: v1); args: INT; ...]" or "output: sum(`v1`)"
+    private static final Pattern FUNCTION = Pattern.compile("([a-z_]+)[\\[(]");
+
+    private PlanFingerprint() {
+    }
+
+    /**
+     * @return the normalized shape, one token per operator or property, separated by ';'
+     */
+    public static String normalize(String explain) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : explain.split("\n")) {
+            if (FRAGMENT.matcher(line).find()) {
+                sb.append("FRAGMENT;");
+                continue;
+            }
+
+            Matcher node = NODE.matcher(line);
+            if (node.find()) {
+                // keep "|----" of the tree, blanks only indent
+                sb.append(node.group(1).replace(" ", "")).append(node.group(2).toUpperCase()).append(';');
+                continue;
+            }
+
+            Matcher detail = DETAIL.matcher(line);
+            if (!detail.find()) {
+                continue;
+            }
+            String key = detail.group(1);
+            String value = detail.group(2).trim();
+            if (key.equals("aggregate") || key.equals("output")) {
+                // only the functions: the arguments are slots and literals
+                StringBuilder functions = new StringBuilder();
+                Matcher function = FUNCTION.matcher(value);
+                while (function.find()) {
+                    functions.append(function.group(1)).append(',');
+                }
+                if (functions.length() == 0) {
+                    continue;
+                }
+                value = functions.toString();
+            } else if (key.equals("PARTITION")) {
+                // "HASH_PARTITIONED: 1: k1" -> "HASH_PARTITIONED"
+                int colon = value.indexOf(':');
+                value = colon < 0 ? value : value.substring(0, colon);
+            } else {
+                value = LITERAL.matcher(SLOT.matcher(value).replaceAll("")).replaceAll("?");
+            }
+            sb.append(key).append('=').append(value).append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 64-bit hash of the normalized shape as 16 hex chars
+     */
+    public static String fingerprint(String explain) {
+        return hash(normalize(explain));
+    }
+
+    static String hash(String shape) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < shape.length(); i++) {
+            h = (h ^ shape.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        String s = Long.toHexString(h);
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = s.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        return sb.append(s).toString();
+    }
+}
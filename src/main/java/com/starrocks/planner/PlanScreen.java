@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dbunit.dataset.ITable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plan-only screening: explain one query of every digest under both planners, nothing is executed.
+ *
+ * The plans are cached by digest, planner and FE build in PLAN_CACHE, which is kept across runs. A run replaces the
+ * plans of its own build and keeps the plans of the last other build, and of the baseline build if one is given.
+ * A digest is flagged when the plan shape or the estimated cost of either planner changed since the baseline build,
+ * by default the last build other than the current one, when it fails to plan, or when the baseline build has no
+ * plan of it. Runs before the cache has a plan of another build only flag failures, so a rerun on the same build
+ * still compares with the build before. The audit records of flagged digests are written to plan_flagged.log,
+ * which is a valid audit log for the full diff mode.
+ */
+public class PlanScreen {
+    private static final Logger LOGGER = LogManager.getLogger(PlanScreen.class);
+
+    private static final String[] PLANNERS = {"old", "new"};
+    // the old planner doesn't support explain costs
+    private static final String[] EXPLAIN_MODELS = {"verbose", "costs"};
+
+    private static final Pattern COST = Pattern.compile("\\bcost[:=]\\s*([0-9.Ee+]+)");
+    private static final Pattern CARDINALITY = Pattern.compile("\\bcardinality[:=]\\s*([0-9.Ee+]+)");
+
+    private final String path;
+    private final String build;
+    // null for the last other build of each digest
+    private final String baselineBuild;
+    private String currentBuild;
+    private boolean baseline;
+
+    // digest \t planner -> plans of the kept builds, the latest first
+    private final Map<String, List<CachedPlan>> cache = new ConcurrentHashMap<>();
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+
+    static class CachedPlan {
+        String build;
+        String shape;
+        double cost;
+
+        static CachedPlan parse(String line) {
+            String[] s = line.split("\t");
+            CachedPlan plan = new CachedPlan();
+            plan.build = s[2];
+            plan.cost = Double.parseDouble(s[3]);
+            plan.shape = s.length > 4 ? s[4] : "";
+            return plan;
+        }
+    }
+
+    private static class Result {
+        String auditLog;
+        final CachedPlan[] plans = new CachedPlan[PLANNERS.length];
+        final List<String> flags = new ArrayList<>();
+    }
+
+    private PlanScreen(String path, String build, String baselineBuild) {
+        this.path = path;
+        this.build = build;
+        this.baselineBuild = baselineBuild;
+    }
+
+    /**
+     * @param build label of the FE build in the cache, current_version() of the FE if null
+     * @param baselineBuild build to compare with, the last other build in the cache if null
+     */
+    public static void screen(String path, String build, String baselineBuild) throws Exception {
+        new PlanScreen(path, build, baselineBuild).run();
+    }
+
+    private void run() throws Exception {
+        loadCache();
+        currentBuild = build != null ? build : version();
+        if (currentBuild.equals(baselineBuild)) {
+            throw new IllegalArgumentException("-baseline is the screened build " + currentBuild);
+        }
+        baseline = cache.values().stream().flatMap(List::stream).noneMatch(this::isBaseline);
+        LOGGER.info("plan screen of build {} against {}, {} cached digests", currentBuild,
+                baseline ? "nothing" : baselineBuild != null ? baselineBuild : "the last other build", cache.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(Config.PLAN_SESSIONS);
+        Semaphore inflight = new Semaphore(Config.PLAN_SESSIONS * 4);
+        Set<String> seen = new HashSet<>();
+        long bytesTotal = new File(path).length();
+        try (AuditLogReader reader = new AuditLogReader(path)) {
+            String auditLog;
+            while ((auditLog = reader.next()) != null) {
+                Metrics.updateProgress(reader.getPosition(), bytesTotal);
+                Optional<Pair<String, String>> sql = NewPlannerTest.getSQL(auditLog);
+                AuditRecord record = sql.isPresent() ? AuditRecord.parse(auditLog) : null;
+                if (record == null || !seen.add(record.digest)) {
+                    continue;
+                }
+
+                String line = auditLog;
+                inflight.acquire();
+                pool.execute(() -> {
+                    try {
+                        explain(record.digest, line, sql.get().getLeft(), sql.get().getRight());
+                    } finally {
+                        inflight.release();
+                    }
+                });
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.info("explained {} of {} digests", results.size(), seen.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        write();
+        saveCache();
+    }
+
+    private void explain(String digest, String auditLog, String db, String sql) {
+        Result result = new Result();
+        result.auditLog = auditLog;
+        try (FrontendPool.Lease lease = FrontendPool.lease()) {
+            StarrocksSession session = lease.getSession();
+            if (!db.isEmpty()) {
+                session.useDb(db);
+            }
+            for (int i = 0; i < PLANNERS.length; i++) {
+                String key = digest + "\t" + PLANNERS[i];
+                try {
+                    if (i == 0) {
+                        session.disableNewPlanner();
+                    } else {
+                        session.enableNewPlanner();
+                    }
+                    String plan = session.explain(sql, EXPLAIN_MODELS[i]);
+                    CachedPlan current = new CachedPlan();
+                    current.build = currentBuild;
+                    current.shape = PlanFingerprint.normalize(plan);
+                    current.cost = cost(plan);
+                    result.plans[i] = current;
+                    compare(result, PLANNERS[i], baselinePlan(key), current);
+                } catch (Exception e) {
+                    LOGGER.debug("explain failed, planner {}, sql {}", PLANNERS[i], sql, e);
+                    result.flags.add(PLANNERS[i].toUpperCase() + "_ERROR");
+                    lease.checkConnection();
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("plan screen connection failed", e);
+            result.flags.add("ERROR");
+        }
+        results.put(digest, result);
+        boolean failed = result.plans[0] == null || result.plans[1] == null;
+        Metrics.recordQuery(failed ? SQLog.ErrorType.OTHER : SQLog.ErrorType.SUCCESS);
+        if (!result.flags.isEmpty()) {
+            Metrics.recordPlanFlag();
+        }
+    }
+
+    private boolean isBaseline(CachedPlan plan) {
+        return baselineBuild != null ? plan.build.equals(baselineBuild) : !plan.build.equals(currentBuild);
+    }
+
+    /**
+     * @return the plan of the baseline build, null if it has none
+     */
+    private CachedPlan baselinePlan(String key) {
+        List<CachedPlan> plans = cache.get(key);
+        if (plans != null) {
+            for (CachedPlan plan : plans) {
+                if (isBaseline(plan)) {
+                    return plan;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void compare(Result result, String planner, CachedPlan cached, CachedPlan current) {
+        String prefix = planner.toUpperCase();
+        if (cached == null) {
+            if (!baseline) {
+                result.flags.add(prefix + "_UNCACHED");
+            }
+            return;
+        }
+        if (!cached.shape.equals(current.shape)) {
+            result.flags.add(prefix + "_SHAPE");
+        }
+        if (Math.abs(current.cost - cached.cost) > Math.max(1, cached.cost) * Config.PLAN_COST_CHANGE) {
+            result.flags.add(prefix + "_COST");
+        }
+    }
+
+    private String version() {
+        try (StarrocksSession session = new StarrocksSession()) {
+            ITable table = session.query("select current_version()").getLeft();
+            return String.valueOf(table.getValue(0, table.getTableMetaData().getColumns()[0].getColumnName()))
+                    .replace('\t', ' ');
+        } catch (Exception e) {
+            LOGGER.warn("get FE version failed, use unknown", e);
+            return "unknown";
+        }
+    }
+
+    /**
+     * Sum of the node costs, or of the node cardinalities if the plan has no costs
+     */
+    static double cost(String plan) {
+        double cost = sum(COST.matcher(plan));
+        return cost > 0 ? cost : sum(CARDINALITY.matcher(plan));
+    }
+
+    private static double sum(Matcher matcher) {
+        double sum = 0;
+        while (matcher.find()) {
+            try {
+                sum += Double.parseDouble(matcher.group(1));
+            } catch (NumberFormatException e) {
+                // not a number, e.g. "cost: -"
+            }
+        }
+        return sum;
+    }
+
+    private void loadCache() throws IOException {
+        File file = new File(Config.PLAN_CACHE);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(file), 1 << 16)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int second = line.indexOf('\t', line.indexOf('\t') + 1);
+                if (second > 0) {
+                    cache.computeIfAbsent(line.substring(0, second), k -> new ArrayList<>())
+                            .add(CachedPlan.parse(line));
+                }
+            }
+        }
+    }
+
+    private void saveCache() throws IOException {
+        Map<String, List<CachedPlan>> plans = new HashMap<>(cache);
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            for (int i = 0; i < PLANNERS.length; i++) {
+                CachedPlan current = entry.getValue().plans[i];
+                if (current != null) {
+                    String key = entry.getKey() + "\t" + PLANNERS[i];
+                    plans.put(key, keep(current, plans.getOrDefault(key, Collections.emptyList())));
+                }
+            }
+        }
+
+        List<String> keys = new ArrayList<>(plans.keySet());
+        Collections.sort(keys);
+        File file = new File(Config.PLAN_CACHE);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(tmp), 1 << 16)) {
+            for (String key : keys) {
+                for (CachedPlan plan : plans.get(key)) {
+                    bw.write(key + "\t" + plan.build + "\t" + plan.cost + "\t" + plan.shape);
+                    bw.newLine();
+                }
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("can't replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can't rename " + tmp + " to " + file);
+        }
+        LOGGER.info("save plans of {} digests to {}", plans.size(), file);
+    }
+
+    /**
+     * The current plan replaces the plan of its build, the last other build and the baseline build are kept
+     */
+    private List<CachedPlan> keep(CachedPlan current, List<CachedPlan> cached) {
+        List<CachedPlan> kept = new ArrayList<>();
+        kept.add(current);
+        boolean lastOther = false;
+        for (CachedPlan plan : cached) {
+            if (plan.build.equals(current.build)) {
+                continue;
+            }
+            if (!lastOther || plan.build.equals(baselineBuild)) {
+                kept.add(plan);
+                lastOther = true;
+            }
+        }
+        return kept;
+    }
+
+    private void write() throws IOException {
+        List<String> digests = new ArrayList<>(results.keySet());
+        Collections.sort(digests);
+
+        int flagged = 0;
+        try (BufferedWriter report = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/plan_screen.txt"));
+                BufferedWriter replay = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/plan_flagged.log"))) {
+            report.write("SQL DIGEST" + "\t\t\t" + "Baseline build" + "\t" + "Old baseline cost" + "\t" + "Old cost"
+                    + "\t" + "New baseline cost" + "\t" + "New cost" + "\t" + "Flag");
+            report.newLine();
+            for (String digest : digests) {
+                Result result = results.get(digest);
+                CachedPlan oldCached = baselinePlan(digest + "\t" + PLANNERS[0]);
+                CachedPlan newCached = baselinePlan(digest + "\t" + PLANNERS[1]);
+                report.write(digest + "\t"
+                        + (oldCached != null ? oldCached.build : newCached != null ? newCached.build : "-") + "\t"
+                        + cost(oldCached) + "\t"
+                        + cost(result.plans[0]) + "\t"
+                        + cost(newCached) + "\t"
+                        + cost(result.plans[1]) + "\t"
+                        + String.join(",", result.flags));
+                report.newLine();
+
+                if (!result.flags.isEmpty()) {
+                    flagged++;
+                    replay.write(result.auditLog);
+                    replay.newLine();
+                }
+            }
+        }
+        LOGGER.info("plan screen done: {} digests, {} flagged for full replay", digests.size(), flagged);
+    }
+
+    private static String cost(CachedPlan plan) {
+        return plan == null ? "-" : String.valueOf((long) plan.cost);
+    }
+}
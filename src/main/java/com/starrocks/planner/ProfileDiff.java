@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operator level diff of the old and new planner profiles of a SLOW query.
+ *
+ * Plan node ids of the two plans don't correspond, so operators are compared by type: the type with the largest
+ * time increase accounts for the regression, and the slowest operator of that type in the new plan is reported.
+ */
+public class ProfileDiff {
+    // pipeline operators of one plan node, "HASH_JOIN_PROBE" and "HASH_JOIN_BUILD" are both "HASH_JOIN"
+    private static final String[] TYPE_SUFFIXES = {"_NODE", "_PROBE", "_BUILD", "_SINK", "_SOURCE", "_PREPARE"};
+
+    private static class TypeStats {
+        long oldTimeNs = 0;
+        long newTimeNs = 0;
+        long oldRows = 0;
+        long newRows = 0;
+        long oldMemory = 0;
+        long newMemory = 0;
+        QueryProfile.Operator slowest;
+    }
+
+    private final Map<String, TypeStats> types = new LinkedHashMap<>();
+    private final long oldTotalMs;
+    private final long newTotalMs;
+    private String culpritType;
+
+    public ProfileDiff(QueryProfile oldProfile, QueryProfile newProfile) {
+        this.oldTotalMs = oldProfile.getTotalMs();
+        this.newTotalMs = newProfile.getTotalMs();
+
+        for (QueryProfile.Operator op : oldProfile.getOperators()) {
+            TypeStats stats = types.computeIfAbsent(typeOf(op.name), k -> new TypeStats());
+            stats.oldTimeNs += op.selfTimeNs;
+            stats.oldRows += op.rows;
+            stats.oldMemory = Math.max(stats.oldMemory, op.peakMemory);
+        }
+        for (QueryProfile.Operator op : newProfile.getOperators()) {
+            TypeStats stats = types.computeIfAbsent(typeOf(op.name), k -> new TypeStats());
+            stats.newTimeNs += op.selfTimeNs;
+            stats.newRows += op.rows;
+            stats.newMemory = Math.max(stats.newMemory, op.peakMemory);
+            if (stats.slowest == null || op.selfTimeNs > stats.slowest.selfTimeNs) {
+                stats.slowest = op;
+            }
+        }
+
+        long maxDelta = 0;
+        for (Map.Entry<String, TypeStats> entry : types.entrySet()) {
+            long delta = entry.getValue().newTimeNs - entry.getValue().oldTimeNs;
+            if (delta > maxDelta && entry.getValue().slowest != null) {
+                maxDelta = delta;
+                culpritType = entry.getKey();
+            }
+        }
+    }
+
+    static String typeOf(String operator) {
+        String type = operator;
+        for (String suffix : TYPE_SUFFIXES) {
+            if (type.endsWith(suffix)) {
+                type = type.substring(0, type.length() - suffix.length());
+                break;
+            }
+        }
+        return type;
+    }
+
+    /**
+     * @return e.g. "HASH_JOIN_NODE (id=5) +1200ms, rows 10000 -> 12000000", or null if no operator is slower
+     */
+    public String getCulprit() {
+        if (culpritType == null) {
+            return null;
+        }
+        TypeStats stats = types.get(culpritType);
+        return stats.slowest.getLabel() + " +" + (stats.newTimeNs - stats.oldTimeNs) / 1000000 + "ms"
+                + ", rows " + stats.oldRows + " -> " + stats.newRows;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Total: old ").append(oldTotalMs).append("ms, new ").append(newTotalMs).append("ms\n");
+        String culprit = getCulprit();
+        sb.append("Regression: ").append(culprit == null ? "no slower operator" : culprit).append("\n\n");
+
+        sb.append("Operator type\tOld time(ms)\tNew time(ms)\tDelta(ms)\tOld rows\tNew rows\tOld peak memory"
+                + "\tNew peak memory\tSlowest new operator\n");
+        List<Map.Entry<String, TypeStats>> entries = new ArrayList<>(types.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().newTimeNs - b.getValue().oldTimeNs,
+                a.getValue().newTimeNs - a.getValue().oldTimeNs));
+        for (Map.Entry<String, TypeStats> entry : entries) {
+            TypeStats stats = entry.getValue();
+            sb.append(entry.getKey()).append('\t')
+                    .append(stats.oldTimeNs / 1000000).append('\t')
+                    .append(stats.newTimeNs / 1000000).append('\t')
+                    .append((stats.newTimeNs - stats.oldTimeNs) / 1000000).append('\t')
+                    .append(stats.oldRows).append('\t')
+                    .append(stats.newRows).append('\t')
+                    .append(stats.oldMemory).append('\t')
+                    .append(stats.newMemory).append('\t')
+                    .append(stats.slowest == null ? "-" : stats.slowest.getLabel()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Query profile of /query_profile parsed into a tree by indentation: fragments, instances and operators, each
+ * with its metrics as numbers. Times are in ns, bytes in bytes, "1.00K (1000)" counters are the exact value.
+ *
+ * <pre>
+ *   Execution Profile ...:(Active: 251ms, % non-child: 0.00%)
+ *     Fragment 0:
+ *       Instance ... (host=...):(Active: 30ms, % non-child: 0.00%)
+ *          - PeakMemoryUsage: 10.00 KB
+ *         EXCHANGE_NODE (id=1):(Active: 30ms, % non-child: 100.00%)
+ *            - RowsReturned: 100
+ * </pre>
+ *
+ * The pipeline engine layout (OLAP_SCAN (plan_node_id=0) with CommonMetrics/UniqueMetrics) is read as well, the
+ * metrics of those sections belong to the operator.
+ */
+public class QueryProfile {
+    private static final Pattern ACTIVE = Pattern.compile("Active:\\s*([^,)]+)");
+    private static final Pattern NON_CHILD = Pattern.compile("% non-child:\\s*([0-9.]+)%");
+    private static final Pattern NODE_ID = Pattern.compile("\\((?:id|plan_node_id)=(-?\\d+)");
+    // "1s234ms", "12.345ms", "1m2s", "123.456us", "10ns"
+    private static final Pattern TIME_PART = Pattern.compile("([0-9.]+)(h|ms|m|s|us|ns)");
+    // "1.23 KB"
+    private static final Pattern BYTES = Pattern.compile("^([0-9.]+)\\s*(B|KB|MB|GB|TB)$");
+    // "1.00K (1000)"
+    private static final Pattern EXACT = Pattern.compile("\\((-?\\d+)\\)$");
+    // "1s2ms[1002000000ns]"
+    private static final Pattern EXACT_NS = Pattern.compile("\\[(\\d+)ns]");
+
+    private static final String[] ROW_METRICS = {"RowsReturned", "PullRowNum", "OutputRows"};
+    private static final String[] MEMORY_METRICS = {"PeakMemoryUsage", "OperatorPeakMemoryUsage"};
+    private static final String[] NETWORK_METRICS = {"BytesReceived", "BytesSent", "NetworkBytes"};
+    private static final String[] SELF_TIME_METRICS = {"OperatorTotalTime"};
+
+    private final Map<String, String> summary = new LinkedHashMap<>();
+    private final Node root = new Node("Query", -1, -1);
+
+    public static class Node {
+        final String name;
+        final int planNodeId;
+        final int indent;
+        long activeNs = -1;
+        double nonChildPercent = -1;
+        final Map<String, Long> metrics;
+        final List<Node> children;
+
+        Node(String name, int planNodeId, int indent) {
+            this.name = name;
+            this.planNodeId = planNodeId;
+            this.indent = indent;
+            this.metrics = new LinkedHashMap<>();
+            this.children = new ArrayList<>();
+        }
+
+        // a metrics section of the owner, e.g. CommonMetrics, on the parse stack only
+        Node(Node owner, int indent) {
+            this.name = owner.name;
+            this.planNodeId = owner.planNodeId;
+            this.indent = indent;
+            this.metrics = owner.metrics;
+            this.children = owner.children;
+        }
+
+        public boolean isFragment() {
+            return name.startsWith("Fragment ");
+        }
+
+        public boolean isInstance() {
+            return name.startsWith("Instance ");
+        }
+
+        public boolean isOperator() {
+            return (planNodeId >= 0 && !name.startsWith("Pipeline")) || name.startsWith("DataStreamSender");
+        }
+
+        /**
+         * Time without the children: the non-child share of Active, or OperatorTotalTime of the pipeline engine
+         */
+        public long getSelfTimeNs() {
+            Long self = first(SELF_TIME_METRICS);
+            if (self != null) {
+                return self;
+            }
+            if (activeNs < 0) {
+                return 0;
+            }
+            return nonChildPercent < 0 ? activeNs : (long) (activeNs * nonChildPercent / 100);
+        }
+
+        public long getRows() {
+            Long rows = first(ROW_METRICS);
+            return rows == null ? 0 : rows;
+        }
+
+        public long getPeakMemory() {
+            Long memory = first(MEMORY_METRICS);
+            return memory == null ? 0 : memory;
+        }
+
+        public long getNetworkBytes() {
+            long bytes = 0;
+            for (String metric : NETWORK_METRICS) {
+                bytes += metrics.getOrDefault(metric, 0L);
+            }
+            return bytes;
+        }
+
+        private Long first(String[] names) {
+            for (String metric : names) {
+                Long value = metrics.get(metric);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Operator metrics of the same plan node summed over all instances
+     */
+    public static class Operator {
+        final String name;
+        final int planNodeId;
+        int instances = 0;
+        long selfTimeNs = 0;
+        long maxSelfTimeNs = 0;
+        long rows = 0;
+        long peakMemory = 0;
+        long networkBytes = 0;
+
+        Operator(String name, int planNodeId) {
+            this.name = name;
+            this.planNodeId = planNodeId;
+        }
+
+        public String getLabel() {
+            return planNodeId < 0 ? name : name + " (id=" + planNodeId + ")";
+        }
+    }
+
+    public static QueryProfile parse(String text) {
+        QueryProfile profile = new QueryProfile();
+        List<Node> stack = new ArrayList<>();
+        stack.add(profile.root);
+        boolean inSummary = false;
+
+        for (String rawLine : unescape(text).split("\n")) {
+            String line = rawLine.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int indent = rawLine.indexOf(line.charAt(0));
+
+            if (line.startsWith("- ")) {
+                int colon = line.indexOf(": ");
+                String name = colon < 0 ? line.substring(2) : line.substring(2, colon).trim();
+                String value = colon < 0 ? "" : line.substring(colon + 2).trim();
+                if (inSummary) {
+                    profile.summary.put(name, value);
+                    continue;
+                }
+                if (name.startsWith("__MAX_OF_") || name.startsWith("__MIN_OF_")) {
+                    continue;
+                }
+                Long number = parseValue(value);
+                if (number != null) {
+                    stack.get(stack.size() - 1).metrics.putIfAbsent(name, number);
+                }
+                continue;
+            }
+
+            if (line.equals("Summary:")) {
+                inSummary = true;
+                continue;
+            }
+            if (!line.endsWith(":") && !line.endsWith(")")) {
+                continue;
+            }
+            inSummary = false;
+
+            while (stack.size() > 1 && stack.get(stack.size() - 1).indent >= indent) {
+                stack.remove(stack.size() - 1);
+            }
+            String name = nameOf(line);
+            if (name.equals("CommonMetrics") || name.equals("UniqueMetrics")) {
+                // a section of the operator above, not a child
+                stack.add(new Node(stack.get(stack.size() - 1), indent));
+                continue;
+            }
+
+            Matcher id = NODE_ID.matcher(line);
+            Node node = new Node(name, id.find() ? Integer.parseInt(id.group(1)) : -1, indent);
+            Matcher active = ACTIVE.matcher(line);
+            if (active.find()) {
+                Long ns = parseTime(active.group(1).trim());
+                node.activeNs = ns == null ? -1 : ns;
+            }
+            Matcher nonChild = NON_CHILD.matcher(line);
+            if (nonChild.find()) {
+                node.nonChildPercent = Double.parseDouble(nonChild.group(1));
+            }
+            stack.get(stack.size() - 1).children.add(node);
+            stack.add(node);
+        }
+        return profile;
+    }
+
+    private static String nameOf(String line) {
+        int end = line.length() - 1;
+        int paren = line.indexOf(" (");
+        int colon = line.indexOf(':');
+        if (line.startsWith("Instance ") || line.startsWith("Fragment ")) {
+            // "Instance 1234-5678 (host=...)", "Fragment 0:"
+            end = paren > 0 ? paren : colon;
+        } else {
+            if (paren > 0) {
+                end = Math.min(end, paren);
+            }
+            if (colon > 0) {
+                end = Math.min(end, colon);
+            }
+        }
+        return line.substring(0, Math.max(0, end)).trim();
+    }
+
+    /**
+     * @return ns for times, bytes for sizes, the number for counters, null if not a number
+     */
+    static Long parseValue(String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        Matcher exact = EXACT.matcher(value);
+        if (exact.find()) {
+            return Long.parseLong(exact.group(1));
+        }
+        Matcher bytes = BYTES.matcher(value);
+        if (bytes.find()) {
+            double v = Double.parseDouble(bytes.group(1));
+            switch (bytes.group(2)) {
+                case "KB":
+                    return (long) (v * 1024);
+                case "MB":
+                    return (long) (v * 1024 * 1024);
+                case "GB":
+                    return (long) (v * 1024 * 1024 * 1024);
+                case "TB":
+                    return (long) (v * 1024 * 1024 * 1024 * 1024);
+                default:
+                    return (long) v;
+            }
+        }
+        Long time = parseTime(value);
+        if (time != null) {
+            return time;
+        }
+        try {
+            return (long) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static Long parseTime(String value) {
+        Matcher exact = EXACT_NS.matcher(value);
+        if (exact.find()) {
+            return Long.parseLong(exact.group(1));
+        }
+        Matcher part = TIME_PART.matcher(value);
+        double ns = 0;
+        int end = 0;
+        boolean found = false;
+        while (part.find()) {
+            if (part.start() != end) {
+                return null;
+            }
+            double v = Double.parseDouble(part.group(1));
+            switch (part.group(2)) {
+                case "h":
+                    ns += v * 3600e9;
+                    break;
+                case "m":
+                    ns += v * 60e9;
+                    break;
+                case "s":
+                    ns += v * 1e9;
+                    break;
+                case "ms":
+                    ns += v * 1e6;
+                    break;
+                case "us":
+                    ns += v * 1e3;
+                    break;
+                default:
+                    ns += v;
+            }
+            end = part.end();
+            found = true;
+        }
+        return found && end == value.length() ? (long) ns : null;
+    }
+
+    private static String unescape(String text) {
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&amp;", "&");
+    }
+
+    public Map<String, String> getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return the "Total" of the summary in ms, -1 if missing
+     */
+    public long getTotalMs() {
+        String total = summary.get("Total");
+        Long ns = total == null ? null : parseTime(total.trim());
+        return ns == null ? -1 : ns / 1000000;
+    }
+
+    public List<Node> getFragments() {
+        List<Node> fragments = new ArrayList<>();
+        collect(root, fragments, true);
+        return fragments;
+    }
+
+    /**
+     * @return operators by plan node, summed over the instances, in profile order
+     */
+    public List<Operator> getOperators() {
+        Map<String, Operator> operators = new LinkedHashMap<>();
+        List<Node> nodes = new ArrayList<>();
+        collect(root, nodes, false);
+        for (Node node : nodes) {
+            Operator op = operators.computeIfAbsent(node.name + "#" + node.planNodeId,
+                    k -> new Operator(node.name, node.planNodeId));
+            long self = node.getSelfTimeNs();
+            op.instances++;
+            op.selfTimeNs += self;
+            op.maxSelfTimeNs = Math.max(op.maxSelfTimeNs, self);
+            op.rows += node.getRows();
+            op.peakMemory = Math.max(op.peakMemory, node.getPeakMemory());
+            op.networkBytes += node.getNetworkBytes();
+        }
+        return new ArrayList<>(operators.values());
+    }
+
+    private static void collect(Node node, List<Node> out, boolean fragments) {
+        for (Node child : node.children) {
+            if (fragments ? child.isFragment() : child.isOperator()) {
+                out.add(child);
+            }
+            collect(child, out, fragments);
+        }
+    }
+
+    /**
+     * Compact form for the result folder: the summary, one line per instance and one line per operator
+     */
+    public String toCompactString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : summary.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+
+        sb.append("\nFragment\tInstance\tTime(ms)\tPeak memory\tNetwork bytes\n");
+        for (Node fragment : getFragments()) {
+            for (Node instance : fragment.children) {
+                if (!instance.isInstance()) {
+                    continue;
+                }
+                List<Node> operators = new ArrayList<>();
+                collect(instance, operators, false);
+                long network = 0;
+                for (Node op : operators) {
+                    network += op.getNetworkBytes();
+                }
+                sb.append(fragment.name.substring("Fragment ".length())).append('\t')
+                        .append(instance.name.substring("Instance ".length())).append('\t')
+                        .append(Math.max(0, instance.activeNs) / 1000000).append('\t')
+                        .append(instance.getPeakMemory()).append('\t')
+                        .append(network).append('\n');
+            }
+        }
+
+        sb.append("\nOperator\tInstances\tTime(ms)\tMax instance time(ms)\tRows\tPeak memory\tNetwork bytes\n");
+        for (Operator op : getOperators()) {
+            sb.append(op.getLabel()).append('\t')
+                    .append(op.instances).append('\t')
+                    .append(op.selfTimeNs / 1000000).append('\t')
+                    .append(op.maxSelfTimeNs / 1000000).append('\t')
+                    .append(op.rows).append('\t')
+                    .append(op.peakMemory).append('\t')
+                    .append(op.networkBytes).append('\n');
+        }
+        return sb.toString();
+    }
+}
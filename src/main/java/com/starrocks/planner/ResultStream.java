@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows of a query read from the FE as they arrive, instead of the whole result as a dbunit table.
+ *
+ * A reader thread fetches the rows with STREAM_FETCH_SIZE rows per round trip (needs `useCursorFetch=true` in
+ * CONNECT_URL), or row by row from the socket if it is not set, into a buffer of STREAM_BUFFER_ROWS rows. The
+ * latency is measured by the reader, the time to run the query and read its result. Once the buffer is full the
+ * reader waits for the consumer and the FE for the reader, so the query is held back and its latency is not
+ * measured. Closing the stream before its end cancels the query.
+ */
+public class ResultStream implements Closeable {
+    private static final Object[] END = new Object[0];
+
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "result-stream");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final PreparedStatement statement;
+    private final BlockingQueue<Object[]> rows = new ArrayBlockingQueue<>(Math.max(1, Config.STREAM_BUFFER_ROWS));
+    private final CountDownLatch opened = new CountDownLatch(1);
+    private final long start = System.currentTimeMillis();
+    private final Future<?> reader;
+
+    private volatile String[] columns;
+    private volatile Exception error;
+    private volatile boolean closed = false;
+    private volatile long latency = -1;
+    // the buffer was full, the latency includes waiting for the consumer
+    private volatile boolean heldBack = false;
+
+    // rows taken by the consumer
+    private long read = 0;
+    private boolean finished = false;
+
+    ResultStream(Connection connection, String sql) throws SQLException {
+        statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Config.STREAM_FETCH_SIZE > 0 ? Config.STREAM_FETCH_SIZE : Integer.MIN_VALUE);
+        reader = READERS.submit(this::read);
+    }
+
+    private void read() {
+        try (ResultSet rs = statement.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            String[] names = new String[meta.getColumnCount()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = meta.getColumnLabel(i + 1);
+            }
+            columns = names;
+            opened.countDown();
+
+            while (!closed && rs.next()) {
+                Object[] row = new Object[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                put(row);
+            }
+            if (!closed && !heldBack) {
+                latency = System.currentTimeMillis() - start;
+            }
+        } catch (Exception e) {
+            if (!closed) {
+                error = e;
+            }
+        } finally {
+            opened.countDown();
+            try {
+                put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void put(Object[] row) throws InterruptedException {
+        if (rows.offer(row)) {
+            return;
+        }
+        if (row != END) {
+            heldBack = true;
+        }
+        while (!closed && !rows.offer(row, 100, TimeUnit.MILLISECONDS)) {
+            // the consumer is behind, or gone
+        }
+    }
+
+    /**
+     * Column labels, once the FE answered
+     *
+     * @throws Exception the error of the query
+     */
+    public String[] getColumns() throws Exception {
+        opened.await();
+        if (columns == null) {
+            throw error != null ? error : new SQLException("result stream closed");
+        }
+        return columns;
+    }
+
+    /**
+     * @return the next row, null at the end of the result
+     * @throws Exception the error of the query, as the driver threw it
+     */
+    public Object[] next() throws Exception {
+        if (finished) {
+            return null;
+        }
+        Object[] row = rows.take();
+        if (row == END) {
+            finished = true;
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        }
+        read++;
+        return row;
+    }
+
+    public long getRead() {
+        return read;
+    }
+
+    /**
+     * @return ms to run the query and read all of its rows, -1 if the stream was closed before its end or the
+     * query was held back
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return true if the buffer filled up and the reader waited for the consumer
+     */
+    public boolean isHeldBack() {
+        return heldBack;
+    }
+
+    @Override
+    public void close() {
+        if (!reader.isDone()) {
+            closed = true;
+            try {
+                // KILL QUERY from another connection, a streamed result set would otherwise be drained on close
+                statement.cancel();
+            } catch (SQLException e) {
+                // the query may have finished already
+            }
+            rows.clear();
+            try {
+                reader.get(Config.STREAM_CANCEL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                reader.cancel(true);
+            }
+        }
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // ignore
+        }
+    }
+}
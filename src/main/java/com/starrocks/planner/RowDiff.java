@@ -0,0 +1,255 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Symmetric difference of the old and the new result as multisets of full rows, so a missing row doesn't shift
+ * every row after it as the index of the sorted comparison does.
+ *
+ * Both results are read once, row by row in lockstep. A row is keyed by its values other than doubles and floats,
+ * and matched to a pending row of the other result with the same key and doubles within the tolerance of
+ * {@link StarrocksUnitAssert#closeDoubles}, as the table comparison does; a row without a match is pending. The rows
+ * left pending are the rows only in the old or only in the new result. Results of the same rows in a similar order
+ * keep the map as small as the difference. Streamed results are added row by row.
+ */
+public class RowDiff {
+    // distinct rows written per side
+    private static final int MAX_ROWS = 1000;
+    // doubles are written with this precision
+    private static final MathContext PRECISION = new MathContext(9);
+
+    private final String[] columns;
+    // index of each compared column in a streamed row
+    private final int[] indexes;
+    // rows without a match by key, of both sides
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * Unmatched rows of one key
+     */
+    private static class Pending {
+        final List<Object[]> oldRows = new ArrayList<>();
+        final List<Object[]> newRows = new ArrayList<>();
+    }
+
+    public RowDiff(ITable oldTable, ITable newTable) throws DataSetException {
+        this(names(newTable));
+        int oldRows = oldTable.getRowCount();
+        int newRows = newTable.getRowCount();
+        for (int i = 0; i < Math.max(oldRows, newRows); i++) {
+            if (i < oldRows) {
+                add(values(oldTable, i), true);
+            }
+            if (i < newRows) {
+                add(values(newTable, i), false);
+            }
+        }
+    }
+
+    /**
+     * An empty diff of results with these columns, the rows are added by {@link #addOld} and {@link #addNew}
+     */
+    public RowDiff(String[] all) {
+        List<String> names = new ArrayList<>();
+        List<Integer> compared = new ArrayList<>();
+        for (int i = 0; i < all.length; i++) {
+            // values of rand(), now() etc. are skipped by the comparison as well
+            if (!StarrocksUnitAssert.isRandom(all[i])) {
+                names.add(all[i]);
+                compared.add(i);
+            }
+        }
+        this.columns = names.toArray(new String[0]);
+        this.indexes = compared.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static String[] names(ITable table) throws DataSetException {
+        Column[] all = table.getTableMetaData().getColumns();
+        String[] names = new String[all.length];
+        for (int i = 0; i < all.length; i++) {
+            names[i] = all[i].getColumnName();
+        }
+        return names;
+    }
+
+    public void addOld(Object[] row) {
+        add(values(row), true);
+    }
+
+    public void addNew(Object[] row) {
+        add(values(row), false);
+    }
+
+    private void add(Object[] values, boolean old) {
+        String key = key(values);
+        Pending rows = pending.get(key);
+        if (rows != null) {
+            Iterator<Object[]> other = (old ? rows.newRows : rows.oldRows).iterator();
+            while (other.hasNext()) {
+                if (sameValues(values, other.next())) {
+                    other.remove();
+                    if (rows.oldRows.isEmpty() && rows.newRows.isEmpty()) {
+                        pending.remove(key);
+                    }
+                    return;
+                }
+            }
+        } else {
+            rows = new Pending();
+            pending.put(key, rows);
+        }
+        (old ? rows.oldRows : rows.newRows).add(values);
+    }
+
+    private Object[] values(ITable table, int row) throws DataSetException {
+        Object[] values = new Object[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            values[c] = table.getValue(row, columns[c]);
+        }
+        return values;
+    }
+
+    private Object[] values(Object[] row) {
+        Object[] values = new Object[indexes.length];
+        for (int c = 0; c < indexes.length; c++) {
+            values[c] = row[indexes[c]];
+        }
+        return values;
+    }
+
+    // the doubles are compared by sameValues
+    private static String key(Object[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < values.length; c++) {
+            if (c > 0) {
+                sb.append('\t');
+            }
+            sb.append(isDouble(values[c]) ? "~" : format(values[c]));
+        }
+        return sb.toString();
+    }
+
+    static boolean isDouble(Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    /**
+     * Values of the same column equal as the table comparison compares them, doubles and floats within 1.0
+     */
+    static boolean sameValue(Object a, Object b) {
+        if (isDouble(a) && isDouble(b)) {
+            return StarrocksUnitAssert.closeDoubles(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return format(a).equals(format(b));
+    }
+
+    static boolean sameValues(Object[] a, Object[] b) {
+        for (int c = 0; c < a.length; c++) {
+            if (!sameValue(a[c], b[c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String format(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (isDouble(value)) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return value.toString();
+            }
+            return new BigDecimal(d).round(PRECISION).stripTrailingZeros().toPlainString();
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).stripTrailingZeros().toPlainString();
+        }
+        return value.toString();
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * @return e.g. "2 rows only in old, 1 rows only in new"
+     */
+    public String getSummary() {
+        long oldOnly = 0;
+        long newOnly = 0;
+        for (Pending rows : pending.values()) {
+            oldOnly += rows.oldRows.size();
+            newOnly += rows.newRows.size();
+        }
+        return oldOnly + " rows only in old, " + newOnly + " rows only in new";
+    }
+
+    /**
+     * Rows only in the old result, one per line with its multiplicity
+     */
+    public String formatOldOnly() {
+        return rows(true);
+    }
+
+    /**
+     * Rows only in the new result, one per line with its multiplicity
+     */
+    public String formatNewOnly() {
+        return rows(false);
+    }
+
+    private String rows(boolean old) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Pending rows : pending.values()) {
+            for (Object[] values : old ? rows.oldRows : rows.newRows) {
+                StringBuilder sb = new StringBuilder();
+                for (int c = 0; c < values.length; c++) {
+                    if (c > 0) {
+                        sb.append('\t');
+                    }
+                    sb.append(format(values[c]));
+                }
+                counts.merge(sb.toString(), 1, Integer::sum);
+            }
+        }
+        if (counts.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("Count\t").append(String.join("\t", columns)).append('\n');
+        int rows = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (rows++ == MAX_ROWS) {
+                sb.append("...\n");
+                break;
+            }
+            sb.append(entry.getValue()).append('\t').append(entry.getKey()).append('\n');
+        }
+        return sb.toString();
+    }
+}
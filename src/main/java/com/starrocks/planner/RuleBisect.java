@@ -0,0 +1,329 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Find the smallest set of BISECT_VARIABLES, each turning off one rule or feature of the new planner, under which
+ * a SLOW query is no longer slow than the old planner, by delta debugging (ddmin) over the variables.
+ *
+ * The old planner and the new planner with all variables at default are timed again first, under the conditions
+ * of the tests, and a query no longer slow is reported as not reproduced. The tests of one round run in parallel
+ * on BISECT_PARALLELISM sessions shared by all bisections. Variables out of the tested set are reset with
+ * `set name = default`. The report has the latency of every test and the diff of the
+ * new planner's plan without and with the found set.
+ */
+public class RuleBisect {
+    private static final Logger LOGGER = LogManager.getLogger(RuleBisect.class);
+
+    private static final String DEFAULT = "default";
+    // plans longer than this are not diffed, the diff is quadratic
+    private static final int MAX_DIFF_LINES = 5000;
+
+    private static ExecutorService executor;
+    // name, value of the variables the FE knows, checked on first use
+    private static List<String[]> variables;
+
+    private final String db;
+    private final String sql;
+    // of the diff, then of the control run
+    private long oldTime;
+    private final Map<BitSet, Long> tests = new HashMap<>();
+    private final StringBuilder report = new StringBuilder();
+
+    private RuleBisect(String db, String sql, long oldTime) {
+        this.db = db;
+        this.sql = sql;
+        this.oldTime = oldTime;
+    }
+
+    /**
+     * @return the report, and the found set in the first line after "restored by: ", or "not reproduced"
+     */
+    public static String bisect(String db, String sql, long oldTime, long newTime) throws Exception {
+        init();
+        RuleBisect bisect = new RuleBisect(db, sql, oldTime);
+        bisect.report.append("old: ").append(oldTime).append("ms, new: ").append(newTime).append("ms\n");
+        return bisect.run();
+    }
+
+    private static synchronized void init() throws Exception {
+        if (variables != null) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(Config.BISECT_PARALLELISM, r -> {
+            Thread t = new Thread(r, "rule-bisect");
+            t.setDaemon(true);
+            return t;
+        });
+
+        List<String[]> known = new ArrayList<>();
+        try (FrontendPool.Lease lease = FrontendPool.lease()) {
+            for (String variable : Config.BISECT_VARIABLES.split(";")) {
+                String[] s = variable.split("=", 2);
+                if (s.length != 2) {
+                    continue;
+                }
+                try {
+                    lease.getSession().setVariable(s[0].trim(), DEFAULT);
+                    known.add(new String[] {s[0].trim(), s[1].trim()});
+                } catch (Exception e) {
+                    LOGGER.warn("bisect variable {} is not supported by the FE, skip it", s[0].trim());
+                }
+            }
+        }
+        variables = known;
+        LOGGER.info("rule bisect over {} variables", variables.size());
+    }
+
+    private String run() throws Exception {
+        // control run: the old planner and the empty set, as the tests run on warm caches
+        try {
+            oldTime = executor.submit(this::executeOld).get();
+            report.append("old again: ").append(oldTime).append("ms\n");
+        } catch (ExecutionException e) {
+            LOGGER.debug("bisect control run of the old planner failed: {}", sql, e.getCause());
+            report.append("old again: error, kept ").append(oldTime).append("ms\n");
+        }
+        BitSet none = new BitSet();
+        test(none);
+        if (restored(none)) {
+            report.insert(0, "not reproduced\n");
+            return report.toString();
+        }
+
+        BitSet all = new BitSet();
+        all.set(0, variables.size());
+        test(all);
+        if (!restored(all)) {
+            report.insert(0, "not restored by all of: " + label(all) + "\n");
+            return report.toString();
+        }
+
+        BitSet found = ddmin(all);
+        report.insert(0, "restored by: " + label(found) + "\n");
+        report.append("\nplan diff of the new planner, - default, + restored:\n");
+        report.append(planDiff(found));
+        return report.toString();
+    }
+
+    private BitSet ddmin(BitSet set) throws Exception {
+        int n = 2;
+        while (set.cardinality() >= 2) {
+            List<BitSet> subsets = split(set, n);
+            List<BitSet> complements = new ArrayList<>();
+            for (BitSet subset : subsets) {
+                BitSet complement = (BitSet) set.clone();
+                complement.andNot(subset);
+                complements.add(complement);
+            }
+            List<BitSet> round = new ArrayList<>(subsets);
+            if (n > 2) {
+                // with 2 subsets the complements are the subsets
+                round.addAll(complements);
+            }
+            test(round);
+
+            BitSet next = null;
+            for (BitSet subset : subsets) {
+                if (restored(subset)) {
+                    next = subset;
+                    n = 2;
+                    break;
+                }
+            }
+            if (next == null && n > 2) {
+                for (BitSet complement : complements) {
+                    if (restored(complement)) {
+                        next = complement;
+                        n = Math.max(n - 1, 2);
+                        break;
+                    }
+                }
+            }
+            if (next != null) {
+                set = next;
+            } else if (n >= set.cardinality()) {
+                break;
+            } else {
+                n = Math.min(set.cardinality(), n * 2);
+            }
+        }
+        return set;
+    }
+
+    private static List<BitSet> split(BitSet set, int n) {
+        List<BitSet> subsets = new ArrayList<>();
+        int size = set.cardinality();
+        int index = 0;
+        for (int i = 0; i < n; i++) {
+            subsets.add(new BitSet());
+        }
+        for (int bit = set.nextSetBit(0); bit >= 0; bit = set.nextSetBit(bit + 1)) {
+            subsets.get((int) ((long) index * n / size)).set(bit);
+            index++;
+        }
+        return subsets;
+    }
+
+    private boolean restored(BitSet set) {
+        Long time = tests.get(set);
+        return time != null && time >= 0 && !SQLDiffer.isSlow(oldTime, time);
+    }
+
+    private void test(BitSet set) throws Exception {
+        List<BitSet> sets = new ArrayList<>();
+        sets.add(set);
+        test(sets);
+    }
+
+    /**
+     * Run the untested sets in parallel, a failed run has latency -1
+     */
+    private void test(List<BitSet> sets) throws Exception {
+        List<BitSet> pending = new ArrayList<>();
+        List<Future<Long>> futures = new ArrayList<>();
+        for (BitSet set : sets) {
+            if (!tests.containsKey(set) && !pending.contains(set)) {
+                pending.add(set);
+                futures.add(executor.submit(() -> execute(set)));
+            }
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            long time;
+            try {
+                time = futures.get(i).get();
+            } catch (ExecutionException e) {
+                LOGGER.debug("bisect test failed, {}: {}", label(pending.get(i)), sql, e.getCause());
+                time = -1;
+            }
+            tests.put(pending.get(i), time);
+            report.append(time < 0 ? "error" : time + "ms").append(restored(pending.get(i)) ? " restored" : "")
+                    .append("\t").append(label(pending.get(i))).append('\n');
+        }
+    }
+
+    private long execute(BitSet set) throws Exception {
+        try (FrontendPool.Lease lease = FrontendPool.lease()) {
+            try {
+                apply(lease.getSession(), set);
+                return lease.getSession().run(sql);
+            } catch (Exception e) {
+                lease.checkConnection();
+                throw e;
+            }
+        }
+    }
+
+    private long executeOld() throws Exception {
+        try (FrontendPool.Lease lease = FrontendPool.lease()) {
+            StarrocksSession session = lease.getSession();
+            try {
+                if (!db.isEmpty()) {
+                    session.useDb(db);
+                }
+                session.disableNewPlanner();
+                return session.run(sql);
+            } catch (Exception e) {
+                lease.checkConnection();
+                throw e;
+            }
+        }
+    }
+
+    private void apply(StarrocksSession session, BitSet set) throws Exception {
+        if (!db.isEmpty()) {
+            session.useDb(db);
+        }
+        session.enableNewPlanner();
+        for (int i = 0; i < variables.size(); i++) {
+            session.setVariable(variables.get(i)[0], set.get(i) ? variables.get(i)[1] : DEFAULT);
+        }
+    }
+
+    private String planDiff(BitSet set) {
+        Future<String> diff = executor.submit(() -> {
+            try (FrontendPool.Lease lease = FrontendPool.lease()) {
+                StarrocksSession session = lease.getSession();
+                apply(session, new BitSet());
+                String before = session.explain(sql, "costs");
+                apply(session, set);
+                String after = session.explain(sql, "costs");
+                return diffLines(before.split("\n"), after.split("\n"));
+            }
+        });
+        try {
+            return diff.get();
+        } catch (Exception e) {
+            return SQLDiffer.formatError(e);
+        }
+    }
+
+    /**
+     * Line diff by the longest common subsequence, "- " for removed, "+ " for added lines
+     */
+    static String diffLines(String[] a, String[] b) {
+        if (a.length > MAX_DIFF_LINES || b.length > MAX_DIFF_LINES) {
+            return "plans are too long to diff\n";
+        }
+        int[][] lcs = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i--) {
+            for (int j = b.length - 1; j >= 0; j--) {
+                lcs[i][j] = a[i].equals(b[j]) ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        boolean changed = false;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && a[i].equals(b[j])) {
+                sb.append("  ").append(a[i++]).append('\n');
+                j++;
+            } else if (j < b.length && (i == a.length || lcs[i][j + 1] >= lcs[i + 1][j])) {
+                sb.append("+ ").append(b[j++]).append('\n');
+                changed = true;
+            } else {
+                sb.append("- ").append(a[i++]).append('\n');
+                changed = true;
+            }
+        }
+        return changed ? sb.toString() : "same plan\n";
+    }
+
+    private static String label(BitSet set) {
+        StringBuilder sb = new StringBuilder();
+        for (int bit = set.nextSetBit(0); bit >= 0; bit = set.nextSetBit(bit + 1)) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(variables.get(bit)[0]).append('=').append(variables.get(bit)[1]);
+        }
+        return sb.length() == 0 ? "-" : sb.toString();
+    }
+}
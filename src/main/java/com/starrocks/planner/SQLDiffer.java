@@ -17,6 +17,8 @@ package com.starrocks.planner;
 import com.mysql.jdbc.exceptions.jdbc4.MySQLSyntaxErrorException;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.dbunit.assertion.DbUnitAssert;
 import org.dbunit.dataset.Column;
 import org.dbunit.dataset.DataSetException;
@@ -26,56 +28,346 @@ import org.junit.Assert;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Run the query on the old and the new side and compare results and latency. The sides are the old and the new
+ * planner on one session, or two sessions on two clusters (A/B mode), where both sides run at the same time.
+ */
 public class SQLDiffer {
+    private static final Logger LOGGER = LogManager.getLogger(SQLDiffer.class);
+
     private static final DbUnitAssert EQUALS_INSTANCE = new StarrocksUnitAssert();
 
     private static final java.text.DecimalFormat numberFormat = new java.text.DecimalFormat("0.00");
 
+    // lower case messages of the FE and the driver for errors which pass on retry
+    private static final String[] TRANSIENT_MESSAGES = {"connection reset", "communications link failure",
+            "broken pipe", "timed out", "too many connections", "too many queries", "busy",
+            "try again", "rpc failed"};
+
+    private static final Pattern ORDER_BY = Pattern.compile("order\\s+by\\b");
+    private static final Pattern LIMIT = Pattern.compile("limit\\b");
+    // "t.`col` desc nulls last" of an ORDER BY item
+    private static final Pattern ORDER_ITEM = Pattern.compile("(?:[`\\w]+\\.)*`?(\\w+)`?"
+            + "(?:\\s+(?:asc|desc))?(?:\\s+nulls\\s+(?:first|last))?");
+
+    // runs the old side of the A/B mode while the calling thread runs the new side
+    private static final ExecutorService OLD_SIDE_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "old-side");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A session and the planner it runs the query with
+     */
+    public static class Side {
+        private final StarrocksSession session;
+        private final boolean newPlanner;
+
+        public Side(StarrocksSession session, boolean newPlanner) {
+            this.session = session;
+            this.newPlanner = newPlanner;
+        }
+
+        void prepare(String db) throws SQLException {
+            if (StringUtils.isNotBlank(db)) {
+                session.useDb(db);
+            }
+            if (newPlanner) {
+                session.enableNewPlanner();
+            } else {
+                session.disableNewPlanner();
+            }
+        }
+
+        String explain(String sql) throws Exception {
+            return session.explain(sql, newPlanner ? "costs" : "verbose");
+        }
+    }
+
+    private final Side oldSide;
+
+    private final Side newSide;
+
     private final String db;
 
     private final String sql;
 
     private final SQLog sqlLog;
 
-    public SQLDiffer(String db, String sql) {
+    private QueryProfile oldProfile;
+
+    private QueryProfile newProfile;
+
+    // plan shape pair of SAMPLE_PER_SHAPE, null if not explained
+    private String shape;
+
+    // the last error collected
+    private Throwable error;
+
+    // whether the artifacts of the failure are collected, null until it is clustered
+    private Boolean exemplar;
+
+    /**
+     * Diff of the planners on one session. Streamed results are read at the same time, so the old planner runs on
+     * a companion session of it and the queries are not timed.
+     */
+    public SQLDiffer(StarrocksSession session, String db, String sql) throws Exception {
+        this(new Side(Config.STREAM_RESULTS ? session.companion() : session, false), new Side(session, true), db,
+                sql);
+    }
+
+    public SQLDiffer(Side oldSide, Side newSide, String db, String sql) {
+        this.oldSide = oldSide;
+        this.newSide = newSide;
         this.db = db;
         this.sql = sql;
         this.sqlLog = new SQLog(db, sql);
     }
 
+    /**
+     * @return false in the A/B mode, where both sides run the same planner on two clusters
+     */
+    private boolean isPlannerDiff() {
+        return oldSide.newPlanner != newSide.newPlanner;
+    }
+
+    public void setShape(String shape) {
+        this.shape = shape;
+    }
+
     public SQLog validate() {
+        // a wrong result or a slow query is collected from the results of this one run, only the queries are
+        // retried on a transient error
         try {
-            if (StringUtils.isNotBlank(db)) {
-                StarrocksUtils.useDb(db);
-            }
-
-            validateResult(false);
+            validateResult();
         } catch (MySQLSyntaxErrorException e) {
-            collectError(SQLog.ErrorType.SYNTAX, e, 1);
+            collectError(SQLog.ErrorType.SYNTAX, e);
         } catch (Throwable e) {
-            // check again
+            collectError(SQLog.ErrorType.OTHER, e);
+        }
+
+        if (!sqlLog.success()) {
+            sqlLog.setExemplar(isExemplar());
+        }
+        if (!sqlLog.success() && sqlLog.isExemplar() && sqlLog.getType() != SQLog.ErrorType.SYNTAX
+                && StatisticsIndex.isLoaded()) {
+            collectStats();
+        }
+        return sqlLog;
+    }
+
+    /**
+     * Cluster the failure once its type is final
+     *
+     * @return false if the cluster has FAILURE_EXEMPLARS already, then only the type and the message are kept
+     */
+    private boolean isExemplar() {
+        if (exemplar == null) {
+            exemplar = FailureClusters.admit(sqlLog.getType(),
+                    FailureClusters.signature(sqlLog.getType(), error, sql, shape), sql);
+        }
+        return exemplar;
+    }
+
+    /**
+     * Statistics of the referenced tables, and the estimated rows of the new planner against its profile. The
+     * explain and the profile are taken again only if the query didn't collect them.
+     */
+    private void collectStats() {
+        String explain = sqlLog.getNewExplain();
+        if (explain.isEmpty()) {
             try {
-                collectError(SQLog.ErrorType.OTHER, e, 1);
-                validateResult(true);
-            } catch (MySQLSyntaxErrorException exception) {
-                collectError(SQLog.ErrorType.SYNTAX, e, 2);
-            } catch (Throwable exception) {
-                collectError(SQLog.ErrorType.OTHER, exception, 2);
+                newSide.prepare(db);
+                explain = newSide.explain(sql);
+            } catch (Exception e) {
+                explain = "";
             }
         }
+        QueryProfile profile = newProfile;
+        if (profile == null && !sqlLog.getNewQueryId().isEmpty()) {
+            try {
+                profile = QueryProfile.parse(newSide.session.profile(sqlLog.getNewQueryId()));
+            } catch (Exception e) {
+                profile = null;
+            }
+        }
+        StatsCorrelation correlation = StatsCorrelation.correlate(db, sql, explain, profile);
+        sqlLog.setStats(correlation.toString());
+        sqlLog.setStatsFlags(correlation.getFlags());
+    }
 
-        return sqlLog;
+    /**
+     * Connection resets, timeouts and a busy FE pass on retry. Any other error, a syntax error or a failed
+     * analysis or execution of the query, fails again the same way.
+     */
+    static boolean isTransient(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof MySQLSyntaxErrorException) {
+                return false;
+            }
+            if (t instanceof SQLTransientException || t instanceof SQLRecoverableException
+                    || t instanceof SocketException || t instanceof SocketTimeoutException) {
+                return true;
+            }
+            // 08xxx: connection exception
+            if (t instanceof SQLException && ((SQLException) t).getSQLState() != null
+                    && ((SQLException) t).getSQLState().startsWith("08")) {
+                return true;
+            }
+            String msg = t.getMessage() == null ? "" : t.getMessage().toLowerCase();
+            for (String transientMsg : TRANSIENT_MESSAGES) {
+                if (msg.contains(transientMsg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
-    private void validateResult(boolean withLog) throws Exception {
-        StarrocksUtils.disableNewPlanner();
-        Pair<ITable, Long> oldResult = StarrocksUtils.query(sql);
-        sqlLog.setOldQueryId(StarrocksUtils.lastQueryID());
+    /**
+     * Run the query again after a transient error, waiting RETRY_BACKOFF_MS, then twice as long. A broken
+     * connection of the sides the query runs on is reconnected before.
+     */
+    private <T> T retry(Callable<T> query, Side... sides) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return query.call();
+            } catch (Exception e) {
+                if (attempt >= Config.QUERY_RETRIES || !isTransient(e)) {
+                    throw e;
+                }
+                long backoff = Config.RETRY_BACKOFF_MS << attempt;
+                LOGGER.info("retry in {}ms after transient error: {}", backoff, e.getMessage());
+                Metrics.recordRetry();
+                Thread.sleep(backoff);
+                for (Side side : sides) {
+                    if (!side.session.isValid()) {
+                        try {
+                            side.session.reconnect();
+                        } catch (Exception reconnectError) {
+                            // the next attempt fails as well, until the retries run out
+                            LOGGER.info("reconnect failed: {}", reconnectError.getMessage());
+                        }
+                    }
+                }
+            }
+        }
+    }
 
-        StarrocksUtils.enableNewPlanner();
-        Pair<ITable, Long> newResult = StarrocksUtils.query(sql);
-        sqlLog.setNewQueryId(StarrocksUtils.lastQueryID());
+    /**
+     * @param dropCaches run CACHE_DROP_HOOK right before the timed query
+     */
+    private Pair<ITable, Long> queryOld(boolean dropCaches) throws Exception {
+        oldSide.prepare(db);
+        if (dropCaches) {
+            CacheControl.dropCaches();
+        }
+        Pair<ITable, Long> result = oldSide.session.query(sql);
+        sqlLog.setOldQueryId(oldSide.session.lastQueryID());
+        Metrics.recordLatency("old", result.getRight());
+        return result;
+    }
+
+    private Pair<ITable, Long> queryNew(boolean dropCaches) throws Exception {
+        newSide.prepare(db);
+        if (dropCaches) {
+            CacheControl.dropCaches();
+        }
+        Pair<ITable, Long> result = newSide.session.query(sql);
+        sqlLog.setNewQueryId(newSide.session.lastQueryID());
+        Metrics.recordLatency("new", result.getRight());
+        return result;
+    }
+
+    /**
+     * Run the query untimed under both planners, for the warm cache mode
+     */
+    private long warmUp(Side side) throws Exception {
+        side.prepare(db);
+        return side.session.run(sql);
+    }
+
+    private void validateResult() throws Exception {
+        if (Config.STREAM_RESULTS && isPlannerDiff()) {
+            // both planners run at the same time on one cluster, the times are of a shared cluster
+            sqlLog.setCacheMode("untimed");
+            validateStream(false);
+            return;
+        }
+        CacheControl.Mode cacheMode = CacheControl.mode();
+        if (cacheMode == CacheControl.Mode.WARM) {
+            retry(() -> warmUp(oldSide), oldSide);
+            retry(() -> warmUp(newSide), newSide);
+        }
+        boolean cold = cacheMode == CacheControl.Mode.COLD;
+        if (Config.STREAM_RESULTS) {
+            sqlLog.setCacheMode(CacheControl.abName());
+            if (cold) {
+                CacheControl.dropCaches();
+            }
+            validateStream(true);
+            return;
+        }
+
+        Pair<ITable, Long> oldResult;
+        Pair<ITable, Long> newResult;
+        if (isPlannerDiff()) {
+            boolean newFirst = cacheMode == CacheControl.Mode.ALTERNATE && CacheControl.newFirst();
+            sqlLog.setCacheMode(cacheMode.toString().toLowerCase() + (newFirst ? ", new first" : ""));
+            if (newFirst) {
+                newResult = retry(() -> queryNew(cold), newSide);
+                oldResult = retry(() -> queryOld(cold), oldSide);
+            } else {
+                oldResult = retry(() -> queryOld(cold), oldSide);
+                newResult = retry(() -> queryNew(cold), newSide);
+            }
+        } else {
+            // both sides start at the same time, the caches of both clusters are dropped once before
+            sqlLog.setCacheMode(CacheControl.abName());
+            if (cold) {
+                CacheControl.dropCaches();
+            }
+            Future<Pair<ITable, Long>> oldFuture =
+                    OLD_SIDE_EXECUTOR.submit(() -> retry(() -> queryOld(false), oldSide));
+            newResult = null;
+            Exception newError = null;
+            try {
+                newResult = retry(() -> queryNew(false), newSide);
+            } catch (Exception e) {
+                newError = e;
+            }
+            try {
+                oldResult = oldFuture.get();
+            } catch (ExecutionException e) {
+                // keep MySQLSyntaxErrorException for validate()
+                Exception oldError = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                if (newError == null) {
+                    throw oldError;
+                }
+                // the error of the build under test is classified, with the other one attached
+                newError.addSuppressed(oldError);
+                throw newError;
+            }
+            if (newError != null) {
+                throw newError;
+            }
+        }
+        sqlLog.setOldTime(oldResult.getRight());
+        sqlLog.setNewTime(newResult.getRight());
 
         ITable newData = newResult.getLeft();
         ITable oldData = oldResult.getLeft();
@@ -83,12 +375,11 @@ public class SQLDiffer {
         try {
             Assert.assertEquals(oldData.getRowCount(), newData.getRowCount());
         } catch (Throwable e) {
-            if (!withLog) {
-                throw e;
+            collectError(SQLog.ErrorType.ROW_COUNT, e);
+            if (!isExemplar()) {
+                return;
             }
-
-            collectError(SQLog.ErrorType.ROW_COUNT, e, 2);
-            collectDataLimit(oldData, newData);
+            collectRowDiff(oldData, newData);
             collectExplain();
             collectProfile();
             return;
@@ -105,73 +396,295 @@ public class SQLDiffer {
         try {
             EQUALS_INSTANCE.assertEquals(sortedExpected, sortedActual);
         } catch (Throwable e) {
-            if (!withLog) {
-                throw e;
+            collectError(SQLog.ErrorType.ROW_DIFF, e);
+            if (!isExemplar()) {
+                return;
             }
+            collectRowDiff(oldData, newData);
+            collectExplain();
+            collectProfile();
+            return;
+        }
 
-            collectError(SQLog.ErrorType.ROW_DIFF, e, 2);
-            if (e instanceof AssertRowError) {
-                collectErrorData(oldData, newData, (AssertRowError) e);
-            } else {
-                collectDataLimit(oldData, newData);
+        logTimeCost(oldResult.getRight(), newResult.getRight());
+    }
+
+    /**
+     * Rows of both sides read so far, and where the comparison stopped
+     */
+    private static class StreamDiff {
+        RowDiff diff;
+        long oldRows;
+        long newRows;
+        // one result ended before the other, the rest of the longer one is not read
+        boolean rowCountDiffers = false;
+        boolean oldEnded = false;
+        boolean newEnded = false;
+        // the ordered results differ at the last row read, the rest of both is not read
+        boolean orderDiffers = false;
+        long oldTime = -1;
+        long newTime = -1;
+        // a full buffer held back the query, its time is not measured
+        boolean heldBack = false;
+    }
+
+    /**
+     * Compare the streamed results of both sides row by row while they arrive. A result ending before the other is
+     * a ROW_COUNT error at once, and the query still running is cancelled. The results of a query with a top-level
+     * ORDER BY of result columns are compared in order, the first differing row is a ROW_DIFF error at once.
+     *
+     * @param timed false to compare the results only, without latencies and a fast or slow verdict
+     */
+    private void validateStream(boolean timed) throws Exception {
+        StreamDiff result = retry(() -> compareStreams(timed), oldSide, newSide);
+        sqlLog.setOldTime(result.oldTime);
+        sqlLog.setNewTime(result.newTime);
+
+        if (result.rowCountDiffers) {
+            collectError(SQLog.ErrorType.ROW_COUNT, new AssertionError("row count differs, old: "
+                    + count(result.oldRows, result.oldEnded) + ", new: " + count(result.newRows, result.newEnded)));
+            if (!isExemplar()) {
+                return;
             }
+            collectRowDiff(result.diff);
             collectExplain();
             collectProfile();
             return;
         }
 
-        logTimeCost(oldResult.getRight(), newResult.getRight());
+        String lowerSql = sql.toLowerCase();
+        boolean anyRows = lowerSql.contains("limit") && !lowerSql.contains("order by");
+        if (result.orderDiffers || (!anyRows && !result.diff.isEmpty())) {
+            collectError(SQLog.ErrorType.ROW_DIFF, new AssertionError(result.orderDiffers
+                    ? "ordered rows differ at row " + result.oldRows : "rows differ"));
+            if (!isExemplar()) {
+                return;
+            }
+            collectRowDiff(result.diff);
+            collectExplain();
+            collectProfile();
+            return;
+        }
+
+        if (!timed) {
+            sqlLog.setMsg("untimed, both planners streamed at the same time");
+            return;
+        }
+        if (result.heldBack) {
+            sqlLog.setMsg("untimed, a full result buffer held back the query");
+            return;
+        }
+        logTimeCost(result.oldTime, result.newTime);
+    }
+
+    // the rows of a cancelled query are a lower bound
+    private static String count(long rows, boolean ended) {
+        return ended ? String.valueOf(rows) : "at least " + rows;
+    }
+
+    private StreamDiff compareStreams(boolean timed) throws Exception {
+        oldSide.prepare(db);
+        newSide.prepare(db);
+        StreamDiff result = new StreamDiff();
+        try (ResultStream oldStream = oldSide.session.stream(sql);
+                ResultStream newStream = newSide.session.stream(sql)) {
+            String[] columns;
+            try {
+                columns = newStream.getColumns();
+            } catch (Exception e) {
+                // the error of the new side is classified, as for the loaded results
+                try {
+                    oldStream.getColumns();
+                } catch (Exception oldError) {
+                    e.addSuppressed(oldError);
+                }
+                throw e;
+            }
+            oldStream.getColumns();
+            result.diff = new RowDiff(columns);
+            int[] orderBy = orderByColumns(sql, columns);
+            Object[] lastKey = null;
+            while (true) {
+                Object[] oldRow = oldStream.next();
+                Object[] newRow = newStream.next();
+                if (oldRow == null || newRow == null) {
+                    if (oldRow != null) {
+                        result.diff.addOld(oldRow);
+                    }
+                    if (newRow != null) {
+                        result.diff.addNew(newRow);
+                    }
+                    result.oldEnded = oldRow == null;
+                    result.newEnded = newRow == null;
+                    result.rowCountDiffers = oldRow != newRow;
+                    break;
+                }
+                // rows of the same sort key come in any order, they match as a multiset once the key changes
+                Object[] key = orderBy == null ? null : sortKey(oldRow, orderBy);
+                if (key != null && (lastKey == null || !RowDiff.sameValues(key, lastKey)) && !result.diff.isEmpty()) {
+                    result.orderDiffers = true;
+                    break;
+                }
+                result.diff.addOld(oldRow);
+                result.diff.addNew(newRow);
+                if (key != null && !RowDiff.sameValues(key, sortKey(newRow, orderBy))) {
+                    result.orderDiffers = true;
+                    break;
+                }
+                lastKey = key;
+            }
+            result.oldRows = oldStream.getRead();
+            result.newRows = newStream.getRead();
+            if (timed) {
+                result.oldTime = oldStream.getLatency();
+                result.newTime = newStream.getLatency();
+                result.heldBack = oldStream.isHeldBack() || newStream.isHeldBack();
+            }
+        }
+
+        sqlLog.setOldQueryId(oldSide.session.lastQueryID());
+        sqlLog.setNewQueryId(newSide.session.lastQueryID());
+        if (result.oldTime >= 0) {
+            Metrics.recordLatency("old", result.oldTime);
+        }
+        if (result.newTime >= 0) {
+            Metrics.recordLatency("new", result.newTime);
+        }
+        return result;
     }
 
     private void collectExplain() {
         try {
-            StarrocksUtils.enableNewPlanner();
-            sqlLog.setNewExplain(StarrocksUtils.explain(sql, "costs"));
+            newSide.prepare(db);
+            sqlLog.setNewExplain(newSide.explain(sql));
         } catch (Exception e) {
             sqlLog.setNewExplain(formatError(e));
         }
 
         try {
-            StarrocksUtils.disableNewPlanner();
-            sqlLog.setOldExplain(StarrocksUtils.explain(sql, "verbose"));
+            oldSide.prepare(db);
+            sqlLog.setOldExplain(oldSide.explain(sql));
         } catch (Exception e) {
             sqlLog.setOldExplain(formatError(e));
         }
     }
 
-    private void collectError(SQLog.ErrorType type, Throwable e, int nums) {
+    private void collectError(SQLog.ErrorType type, Throwable e) {
         sqlLog.setType(type);
-        sqlLog.setMsg((sqlLog.getMsg() + "\nNo." + nums + " ERROR:\n" + formatError(e)).trim());
+        error = e;
+        sqlLog.setMsg((sqlLog.getMsg() + "\n" + formatError(e)).trim());
     }
 
-    private void collectDataLimit(ITable oldTable, ITable newTable) {
+    /**
+     * Rows only in the old or only in the new result, instead of the rows around the first different index
+     */
+    private void collectRowDiff(ITable oldTable, ITable newTable) {
         if (!Config.COLLECT_RESULT_DATA) {
             return;
         }
-        sqlLog.setOldData(formatData(oldTable, 0, Math.min(oldTable.getRowCount(), 1000)));
-        sqlLog.setNewData(formatData(newTable, 0, Math.min(newTable.getRowCount(), 1000)));
+        try {
+            collectRowDiff(new RowDiff(oldTable, newTable));
+        } catch (DataSetException e) {
+            sqlLog.setOldData(formatError(e));
+        }
     }
 
-    private void collectErrorData(ITable oldTable, ITable newTable, AssertRowError e) {
+    /**
+     * Result columns of the top-level ORDER BY of the query
+     *
+     * @return null if there is none, or an item is not a column name, alias or position of the result
+     */
+    static int[] orderByColumns(String sql, String[] columns) {
+        String lowerSql = sql.toLowerCase();
+        int start = -1;
+        int end = lowerSql.length();
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < lowerSql.length(); i++) {
+            char c = lowerSql.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && c == ';') {
+                end = Math.min(end, i);
+            } else if (depth == 0 && (i == 0 || !isWordChar(lowerSql.charAt(i - 1)))) {
+                if (ORDER_BY.matcher(lowerSql).region(i, lowerSql.length()).lookingAt()) {
+                    start = i;
+                    end = lowerSql.length();
+                } else if (start >= 0 && LIMIT.matcher(lowerSql).region(i, lowerSql.length()).lookingAt()) {
+                    end = Math.min(end, i);
+                }
+            }
+        }
+        if (start < 0) {
+            return null;
+        }
+
+        String clause = ORDER_BY.matcher(lowerSql.substring(start, end)).replaceFirst("");
+        // no commas in parentheses, an item with a function call is not a result column anyway
+        String[] items = clause.split(",");
+        int[] result = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i].trim();
+            Matcher matcher = ORDER_ITEM.matcher(item);
+            if (!matcher.matches()) {
+                return null;
+            }
+            String name = matcher.group(1);
+            result[i] = -1;
+            if (StringUtils.isNumeric(name)) {
+                result[i] = Integer.parseInt(name) - 1;
+            } else {
+                for (int c = 0; c < columns.length; c++) {
+                    if (columns[c].equalsIgnoreCase(name)) {
+                        result[i] = c;
+                        break;
+                    }
+                }
+            }
+            if (result[i] < 0 || result[i] >= columns.length || StarrocksUnitAssert.isRandom(columns[result[i]])) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    // compared by RowDiff.sameValues, doubles within the tolerance of the table comparison
+    private static Object[] sortKey(Object[] row, int[] orderBy) {
+        Object[] key = new Object[orderBy.length];
+        for (int i = 0; i < orderBy.length; i++) {
+            key[i] = row[orderBy[i]];
+        }
+        return key;
+    }
+
+    private void collectRowDiff(RowDiff rowDiff) {
         if (!Config.COLLECT_RESULT_DATA) {
             return;
         }
-        if (null != e && null != e.getDifference()) {
-            int row = e.getDifference().getRowIndex();
-            sqlLog.setOldData(
-                    formatData(oldTable, Math.max(0, row - 500), Math.min(oldTable.getRowCount(), row + 500)));
-            sqlLog.setNewData(
-                    formatData(newTable, Math.max(0, row - 500), Math.min(newTable.getRowCount(), row + 500)));
-        }
+        sqlLog.setMsg(sqlLog.getMsg() + "\nRow diff: " + rowDiff.getSummary());
+        sqlLog.setOldData(rowDiff.formatOldOnly());
+        sqlLog.setNewData(rowDiff.formatNewOnly());
     }
 
-    private String formatError(Throwable e) {
+    static String formatError(Throwable e) {
         StringWriter writer = new StringWriter();
         e.printStackTrace(new PrintWriter(writer));
         return writer.toString();
     }
 
-    private String formatData(ITable table, int start, int end) {
+    static String formatData(ITable table, int start, int end) {
         try {
             StringBuilder data = new StringBuilder();
             for (Column column : table.getTableMetaData().getColumns()) {
@@ -190,24 +703,36 @@ public class SQLDiffer {
 
     private void collectProfile() {
         try {
-            StarrocksUtils.disableNewPlanner();
-            sqlLog.setOldProfile(StarrocksUtils.profile(sqlLog.getOldQueryId()));
+            String profile = oldSide.session.profile(sqlLog.getOldQueryId());
+            oldProfile = QueryProfile.parse(profile);
+            sqlLog.setOldProfile(Config.PROFILE_RAW ? profile : oldProfile.toCompactString());
         } catch (Exception e) {
             sqlLog.setOldProfile(formatError(e));
         }
 
         try {
-            StarrocksUtils.enableNewPlanner();
-            sqlLog.setNewProfile(StarrocksUtils.profile(sqlLog.getNewQueryId()));
+            String profile = newSide.session.profile(sqlLog.getNewQueryId());
+            newProfile = QueryProfile.parse(profile);
+            sqlLog.setNewProfile(Config.PROFILE_RAW ? profile : newProfile.toCompactString());
         } catch (Exception e) {
             sqlLog.setNewProfile(formatError(e));
         }
     }
 
+    /**
+     * Latency differences of short queries, or less than 300ms and 1.5 times, are noise
+     */
+    private static boolean isIgnored(long oldTime, long newTime) {
+        return (newTime < 300 && oldTime < 300) || (newTime - oldTime < 300 && newTime * 1.0 / oldTime < 1.5);
+    }
+
+    static boolean isSlow(long oldTime, long newTime) {
+        return !isIgnored(oldTime, newTime) && newTime > oldTime;
+    }
+
     private void logTimeCost(Long oldTime, Long newTime) {
         double radio = newTime * 1.0 / oldTime;
-        long diff = newTime - oldTime;
-        if ((newTime < 300 && oldTime < 300) || (diff < 300 && radio < 1.5)) {
+        if (isIgnored(oldTime, newTime)) {
             sqlLog.setType(SQLog.ErrorType.SUCCESS);
             sqlLog.setMsg("ignore, new: " + newTime + "ms, old: " + oldTime + "ms, radio: " + numberFormat
                     .format(radio));
@@ -220,14 +745,38 @@ public class SQLDiffer {
         }
 
         if (!sqlLog.success()) {
-            if (Config.SLOW_PROFILE) {
+            // the other queries of the cluster keep their latency only
+            boolean collect = isExemplar();
+            String culprit = null;
+            if (collect && Config.SLOW_PROFILE) {
                 collectProfile();
+                if (oldProfile != null && newProfile != null) {
+                    ProfileDiff profileDiff = new ProfileDiff(oldProfile, newProfile);
+                    sqlLog.setProfileDiff(profileDiff.toString());
+                    culprit = profileDiff.getCulprit();
+                }
             }
-            if (Config.SLOW_EXPLAIN) {
+            if (collect && Config.SLOW_EXPLAIN) {
                 collectExplain();
             }
+            String restoredBy = null;
+            boolean reproduced = true;
+            // the variables are of the new planner, not of the A/B mode
+            if (collect && Config.BISECT && isPlannerDiff()) {
+                try {
+                    String bisect = RuleBisect.bisect(db, sql, oldTime, newTime);
+                    sqlLog.setBisect(bisect);
+                    String first = bisect.substring(0, bisect.indexOf('\n'));
+                    restoredBy = first.startsWith("restored by: ") ? first.substring("restored by: ".length()) : null;
+                    reproduced = !first.equals("not reproduced");
+                } catch (Exception e) {
+                    sqlLog.setBisect(formatError(e));
+                }
+            }
             sqlLog.setMsg("slow, new: " + newTime + "ms, old: " + oldTime + "ms, radio: " + numberFormat
-                    .format(radio));
+                    .format(radio) + (culprit == null ? "" : ", slower operator: " + culprit)
+                    + (restoredBy == null ? "" : ", restored by: " + restoredBy)
+                    + (reproduced ? "" : ", not reproduced by bisect"));
         }
     }
 }
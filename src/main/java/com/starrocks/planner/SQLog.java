@@ -42,6 +42,9 @@ public class SQLog {
 
     private long id;
 
+    // number of the files in the error type folder, 0 if not written
+    private long fileId = 0;
+
     private final String db;
 
     private final String sql;
@@ -64,6 +67,26 @@ public class SQLog {
 
     private String oldProfile = "";
 
+    private String profileDiff = "";
+
+    private String bisect = "";
+
+    private String stats = "";
+
+    // MISSING_STATS, STALE_STATS, MISESTIMATE of the stats correlation, comma separated
+    private String statsFlags = "";
+
+    // CACHE_MODE of the timed runs, with the planner run first in the alternate mode
+    private String cacheMode = "none";
+
+    // false for a failure of a cluster with FAILURE_EXEMPLARS already, its files are not written
+    private boolean exemplar = true;
+
+    // latency in ms, -1 if the query didn't run on the side
+    private long oldTime = -1;
+
+    private long newTime = -1;
+
     public SQLog(String db, String sql) {
         this.db = db;
         this.sql = sql;
@@ -74,6 +97,14 @@ public class SQLog {
         this.id = id;
     }
 
+    public long getFileId() {
+        return fileId;
+    }
+
+    public ErrorType getType() {
+        return type;
+    }
+
     public void setType(ErrorType type) {
         this.type = type;
     }
@@ -110,6 +141,10 @@ public class SQLog {
         this.oldData = oldData;
     }
 
+    public String getNewExplain() {
+        return newExplain;
+    }
+
     public void setNewExplain(String newExplain) {
         this.newExplain = newExplain;
     }
@@ -126,6 +161,58 @@ public class SQLog {
         this.oldProfile = oldProfile;
     }
 
+    public void setProfileDiff(String profileDiff) {
+        this.profileDiff = profileDiff;
+    }
+
+    public void setBisect(String bisect) {
+        this.bisect = bisect;
+    }
+
+    public void setStats(String stats) {
+        this.stats = stats;
+    }
+
+    public String getStatsFlags() {
+        return statsFlags;
+    }
+
+    public void setStatsFlags(String statsFlags) {
+        this.statsFlags = statsFlags;
+    }
+
+    public String getCacheMode() {
+        return cacheMode;
+    }
+
+    public void setCacheMode(String cacheMode) {
+        this.cacheMode = cacheMode;
+    }
+
+    public boolean isExemplar() {
+        return exemplar;
+    }
+
+    public void setExemplar(boolean exemplar) {
+        this.exemplar = exemplar;
+    }
+
+    public long getOldTime() {
+        return oldTime;
+    }
+
+    public void setOldTime(long oldTime) {
+        this.oldTime = oldTime;
+    }
+
+    public long getNewTime() {
+        return newTime;
+    }
+
+    public void setNewTime(long newTime) {
+        this.newTime = newTime;
+    }
+
     public boolean success() {
         return type == ErrorType.SUCCESS;
     }
@@ -142,15 +229,21 @@ public class SQLog {
             LOGGER.info("{} | {} | {}", db, sql, msg);
             return;
         }
+        if (!exemplar) {
+            LOGGER.debug("{} | {} | {}, not an exemplar of its failure cluster", db, sql, type);
+            return;
+        }
 
         long query = QUERY_ID.addAndGet(1);
+        fileId = query;
         String dir = Config.OUTPUT_DIR + "/" + type.toString().toLowerCase() + "/";
         String sqlFile = dir + query + "_sql";
 
         try (FileWriter fw = new FileWriter(new File(sqlFile))) {
             fw.append("use ").append(db).append(";\n");
             fw.append(sql);
-            fw.append("\nLine: ").append(String.valueOf(id)).append(", ERROR: ");
+            fw.append("\nLine: ").append(String.valueOf(id)).append(", Cache: ").append(cacheMode)
+                    .append(", ERROR: ");
             fw.append(msg).append("\n");
         }
 
@@ -169,6 +262,12 @@ public class SQLog {
 
         writeFile(npFile, newProfile);
         writeFile(opFile, oldProfile);
+        writeFile(dir + query + "_profile_diff", profileDiff);
+        writeFile(dir + query + "_bisect", bisect);
+        writeFile(dir + query + "_stats", stats);
+        if (!stats.isEmpty()) {
+            StatsCorrelation.writeSummary(id, type, query, statsFlags);
+        }
 
         if (type == ErrorType.SLOW) {
             return;
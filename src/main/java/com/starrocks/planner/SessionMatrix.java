@@ -0,0 +1,309 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matrix mode: run MATRIX_SAMPLES queries of every digest under every combination of the session variables of
+ * MATRIX, and report the latency surface per digest.
+ *
+ * `matrix_surface.tsv` has the latency of every (digest, combination), `matrix.txt` the best and the worst
+ * combination per digest, digests whose worst average is MATRIX_CLIFF times the best (and 300ms slower) are
+ * flagged CLIFF, and how often each combination is the best and the worst.
+ */
+public class SessionMatrix {
+    private static final Logger LOGGER = LogManager.getLogger(SessionMatrix.class);
+
+    // like the slow check of SQLDiffer, short queries are never a cliff
+    private static final long CLIFF_MIN_MS = 300;
+
+    private final String path;
+    private final boolean newPlanner;
+
+    private final List<String> names = new ArrayList<>();
+    // values of every combination, in the order of names
+    private final List<String[]> combinations = new ArrayList<>();
+
+    private final Map<String, Surface> surfaces = new ConcurrentHashMap<>();
+    private final AtomicLong runs = new AtomicLong();
+
+    private class Surface {
+        final BenchmarkTest.TimeAndCount[] cells = new BenchmarkTest.TimeAndCount[combinations.size()];
+        final long[] errors = new long[combinations.size()];
+        int samples = 0;
+
+        synchronized void record(int combination, long time) {
+            if (cells[combination] == null) {
+                cells[combination] = new BenchmarkTest.TimeAndCount();
+            }
+            cells[combination].touch(time);
+        }
+
+        synchronized void error(int combination) {
+            errors[combination]++;
+        }
+
+        /**
+         * @return the combination with the lowest (highest if worst) average, -1 if none succeeded
+         */
+        int pick(boolean worst) {
+            int best = -1;
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] == null) {
+                    continue;
+                }
+                if (best < 0 || (worst ? cells[i].getAvgTime() > cells[best].getAvgTime()
+                        : cells[i].getAvgTime() < cells[best].getAvgTime())) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        double spread() {
+            int best = pick(false);
+            int worst = pick(true);
+            return best < 0 ? 0 : cells[worst].getAvgTime() * 1.0 / Math.max(1, cells[best].getAvgTime());
+        }
+    }
+
+    private SessionMatrix(String path, boolean newPlanner) {
+        this.path = path;
+        this.newPlanner = newPlanner;
+    }
+
+    public static void run(String path, boolean newPlanner) throws Exception {
+        new SessionMatrix(path, newPlanner).run();
+    }
+
+    /**
+     * "name=v1,v2;name=v1,v2" to the cartesian product of the values
+     */
+    private void parseDimensions() {
+        combinations.add(new String[0]);
+        for (String dimension : Config.MATRIX.split(";")) {
+            if (dimension.trim().isEmpty()) {
+                continue;
+            }
+            String[] s = dimension.split("=", 2);
+            if (s.length != 2) {
+                throw new IllegalArgumentException("invalid MATRIX dimension " + dimension + ", expect name=v1,v2");
+            }
+            names.add(s[0].trim());
+
+            List<String[]> product = new ArrayList<>();
+            for (String[] combination : combinations) {
+                for (String value : s[1].split(",")) {
+                    String[] next = new String[combination.length + 1];
+                    System.arraycopy(combination, 0, next, 0, combination.length);
+                    next[combination.length] = value.trim();
+                    product.add(next);
+                }
+            }
+            combinations.clear();
+            combinations.addAll(product);
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("MATRIX has no session variable");
+        }
+    }
+
+    private String label(int combination) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(names.get(i)).append('=').append(combinations.get(combination)[i]);
+        }
+        return sb.toString();
+    }
+
+    private void run() throws Exception {
+        parseDimensions();
+        LOGGER.info("matrix of {} combinations, {} samples per digest", combinations.size(), Config.MATRIX_SAMPLES);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Config.MATRIX_SESSIONS);
+        Semaphore inflight = new Semaphore(Config.MATRIX_SESSIONS * 4);
+        long bytesTotal = new File(path).length();
+        long samples = 0;
+        try (AuditLogReader reader = new AuditLogReader(path)) {
+            String auditLog;
+            while ((auditLog = reader.next()) != null) {
+                Metrics.updateProgress(reader.getPosition(), bytesTotal);
+                Optional<Pair<String, String>> sql = NewPlannerTest.getSQL(auditLog);
+                if (!sql.isPresent()) {
+                    continue;
+                }
+                Surface surface = surfaces.computeIfAbsent(SqlDigest.digest(sql.get().getRight()),
+                        k -> new Surface());
+                if (surface.samples >= Config.MATRIX_SAMPLES) {
+                    continue;
+                }
+                surface.samples++;
+                samples++;
+
+                // start the combinations of each sample at another one, so the first run of a query, which
+                // warms up the caches, doesn't always hit the same combination
+                for (int i = 0; i < combinations.size(); i++) {
+                    int combination = (int) ((i + samples) % combinations.size());
+                    inflight.acquire();
+                    pool.execute(() -> {
+                        try {
+                            execute(surface, combination, sql.get().getLeft(), sql.get().getRight());
+                        } finally {
+                            inflight.release();
+                        }
+                    });
+                }
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.info("ran {} of {} queries", runs.get(), samples * combinations.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        write();
+    }
+
+    private void execute(Surface surface, int combination, String db, String sql) {
+        try (FrontendPool.Lease lease = FrontendPool.lease()) {
+            StarrocksSession session = lease.getSession();
+            try {
+                if (!db.isEmpty()) {
+                    session.useDb(db);
+                }
+                if (newPlanner) {
+                    session.enableNewPlanner();
+                } else {
+                    session.disableNewPlanner();
+                }
+                String[] values = combinations.get(combination);
+                for (int i = 0; i < names.size(); i++) {
+                    session.setVariable(names.get(i), values[i]);
+                }
+
+                long time = session.run(sql);
+                surface.record(combination, time);
+                Metrics.recordLatency(newPlanner ? "new" : "old", time);
+                Metrics.recordQuery(SQLog.ErrorType.SUCCESS);
+            } catch (Exception e) {
+                LOGGER.debug("matrix query failed, {}: {}", label(combination), sql, e);
+                surface.error(combination);
+                Metrics.recordQuery(SQLog.ErrorType.OTHER);
+                lease.checkConnection();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("matrix connection failed", e);
+            surface.error(combination);
+        }
+        runs.incrementAndGet();
+    }
+
+    private void write() throws IOException {
+        List<String> digests = new ArrayList<>(surfaces.keySet());
+        Collections.sort(digests);
+        // largest spread first
+        digests.sort((a, b) -> Double.compare(surfaces.get(b).spread(), surfaces.get(a).spread()));
+
+        int[] bestCount = new int[combinations.size()];
+        int[] worstCount = new int[combinations.size()];
+        long cliffs = 0;
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/matrix_surface.tsv"))) {
+            bw.write("SQL DIGEST" + "\t" + "Combination" + "\t" + "Count" + "\t" + "Errors" + "\t" + "Avg(ms)" + "\t"
+                    + "P50(ms)" + "\t" + "P99(ms)" + "\t" + "Relative" + "\t" + "Flag");
+            bw.newLine();
+            for (String digest : digests) {
+                Surface surface = surfaces.get(digest);
+                int best = surface.pick(false);
+                int worst = surface.pick(true);
+                for (int i = 0; i < combinations.size(); i++) {
+                    BenchmarkTest.TimeAndCount tc = surface.cells[i];
+                    String flag = tc == null ? "ERROR" : (i == best ? "BEST" : (i == worst ? "WORST" : ""));
+                    bw.write(digest + "\t" + label(i) + "\t"
+                            + (tc == null ? 0 : tc.getCount()) + "\t"
+                            + surface.errors[i] + "\t"
+                            + (tc == null ? "-" : tc.getAvgTime()) + "\t"
+                            + (tc == null ? "-" : tc.getPercentile(50)) + "\t"
+                            + (tc == null ? "-" : tc.getPercentile(99)) + "\t"
+                            + (tc == null ? "-" : String.format("%.2f",
+                            tc.getAvgTime() * 1.0 / Math.max(1, surface.cells[best].getAvgTime()))) + "\t"
+                            + flag);
+                    bw.newLine();
+                }
+            }
+        }
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/matrix.txt"))) {
+            bw.write("SQL DIGEST" + "\t" + "Best" + "\t" + "Best(ms)" + "\t" + "Worst" + "\t" + "Worst(ms)" + "\t"
+                    + "Spread" + "\t" + "Flag");
+            bw.newLine();
+            for (String digest : digests) {
+                Surface surface = surfaces.get(digest);
+                int best = surface.pick(false);
+                int worst = surface.pick(true);
+                if (best < 0) {
+                    bw.write(digest + "\t-\t-\t-\t-\t-\tERROR");
+                    bw.newLine();
+                    continue;
+                }
+                bestCount[best]++;
+                worstCount[worst]++;
+                boolean cliff = surface.spread() >= Config.MATRIX_CLIFF
+                        && surface.cells[worst].getAvgTime() - surface.cells[best].getAvgTime() >= CLIFF_MIN_MS;
+                if (cliff) {
+                    cliffs++;
+                }
+                bw.write(digest + "\t" + label(best) + "\t" + surface.cells[best].getAvgTime() + "\t"
+                        + label(worst) + "\t" + surface.cells[worst].getAvgTime() + "\t"
+                        + String.format("%.2f", surface.spread()) + "\t" + (cliff ? "CLIFF" : ""));
+                bw.newLine();
+            }
+
+            bw.newLine();
+            bw.write("Combination" + "\t" + "Best digests" + "\t" + "Worst digests");
+            bw.newLine();
+            for (int i = 0; i < combinations.size(); i++) {
+                bw.write(label(i) + "\t" + bestCount[i] + "\t" + worstCount[i]);
+                bw.newLine();
+            }
+        }
+
+        LOGGER.info("matrix done: {} digests, {} combinations, {} cliffs", digests.size(), combinations.size(),
+                cliffs);
+    }
+}
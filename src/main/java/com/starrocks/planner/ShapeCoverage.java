@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Execute at most SAMPLE_PER_SHAPE queries per (old plan shape, new plan shape) pair in the diff mode.
+ *
+ * The shapes are explained once per digest on a leased session, by the diff threads. Pairs with a failed explain
+ * are never capped, a planner failing on a query is a finding of its own. Skipped queries are still counted, so
+ * the report shows for every shape pair how many of its digests and queries were executed.
+ */
+public class ShapeCoverage {
+    private static final Logger LOGGER = LogManager.getLogger(ShapeCoverage.class);
+
+    private static final String ERROR = "error";
+
+    // digest -> "old fingerprint\tnew fingerprint"
+    private final Map<String, String> digestShapes = new ConcurrentHashMap<>();
+    private final Map<String, Shape> shapes = new LinkedHashMap<>();
+
+    private static class Shape {
+        String example;
+        long digests = 0;
+        long queries = 0;
+        long executed = 0;
+        long failed = 0;
+    }
+
+    /**
+     * @return the shape pair of the query, explained under both planners if its digest is new
+     */
+    public String shapeOf(String digest, String db, String sql) {
+        String pair = digestShapes.get(digest);
+        if (pair != null) {
+            return pair;
+        }
+
+        // explained without the lock, a digest explained by two threads at once is counted once
+        pair = fingerprints(db, sql);
+        synchronized (this) {
+            String known = digestShapes.putIfAbsent(digest, pair);
+            if (known != null) {
+                return known;
+            }
+            Shape shape = shapes.computeIfAbsent(pair, k -> new Shape());
+            if (shape.example == null) {
+                shape.example = digest;
+            }
+            shape.digests++;
+        }
+        return pair;
+    }
+
+    private String fingerprints(String db, String sql) {
+        try (FrontendPool.Lease lease = FrontendPool.lease()) {
+            StarrocksSession session = lease.getSession();
+            String oldShape = fingerprint(session, db, sql, false);
+            String newShape = fingerprint(session, db, sql, true);
+            if (oldShape.equals(ERROR) || newShape.equals(ERROR)) {
+                lease.checkConnection();
+            }
+            return oldShape + "\t" + newShape;
+        } catch (Exception e) {
+            LOGGER.warn("shape coverage connection failed", e);
+            return ERROR + "\t" + ERROR;
+        }
+    }
+
+    private static String fingerprint(StarrocksSession session, String db, String sql, boolean newPlanner) {
+        try {
+            if (StringUtils.isNotBlank(db)) {
+                session.useDb(db);
+            }
+            if (newPlanner) {
+                session.enableNewPlanner();
+                return PlanFingerprint.fingerprint(session.explain(sql, "costs"));
+            } else {
+                session.disableNewPlanner();
+                return PlanFingerprint.fingerprint(session.explain(sql, "verbose"));
+            }
+        } catch (Exception e) {
+            LOGGER.debug("explain failed: {}", sql, e);
+            return ERROR;
+        }
+    }
+
+    /**
+     * @return true if a planner failed to explain the queries of the pair, they are neither capped nor clustered
+     * by shape
+     */
+    public static boolean hasError(String pair) {
+        int tab = pair.indexOf('\t');
+        return pair.substring(0, tab).equals(ERROR) || pair.substring(tab + 1).equals(ERROR);
+    }
+
+    /**
+     * Count the query of the pair, and as executed if admitted
+     *
+     * @return false if the pair already has SAMPLE_PER_SHAPE executed queries
+     */
+    public synchronized boolean admit(String pair) {
+        Shape shape = shapes.get(pair);
+        shape.queries++;
+        if (shape.executed >= Config.SAMPLE_PER_SHAPE && !hasError(pair)) {
+            return false;
+        }
+        shape.executed++;
+        return true;
+    }
+
+    public synchronized void failed(String pair) {
+        shapes.get(pair).failed++;
+    }
+
+    public synchronized void write() throws IOException {
+        List<Map.Entry<String, Shape>> entries = new ArrayList<>(shapes.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().queries, a.getValue().queries));
+
+        long queries = 0;
+        long executed = 0;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/shape_coverage.txt"))) {
+            bw.write("Old shape" + "\t\t" + "New shape" + "\t\t" + "Digests" + "\t" + "Queries" + "\t" + "Executed"
+                    + "\t" + "Failed" + "\t" + "Coverage" + "\t" + "Example digest");
+            bw.newLine();
+            for (Map.Entry<String, Shape> entry : entries) {
+                Shape shape = entry.getValue();
+                queries += shape.queries;
+                executed += shape.executed;
+                bw.write(entry.getKey() + "\t"
+                        + shape.digests + "\t"
+                        + shape.queries + "\t"
+                        + shape.executed + "\t"
+                        + shape.failed + "\t"
+                        + percent(shape.executed, shape.queries) + "\t"
+                        + shape.example);
+                bw.newLine();
+            }
+        }
+        LOGGER.info("shape coverage: {} shape pairs of {} digests, executed {} of {} queries ({})",
+                shapes.size(), digestShapes.size(), executed, queries, percent(executed, queries));
+    }
+
+    private static String percent(long part, long total) {
+        return total == 0 ? "-" : String.format("%.2f%%", part * 100.0 / total);
+    }
+}
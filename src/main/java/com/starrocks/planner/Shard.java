@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+/**
+ * Deterministic part `index` of `count` of an audit log, for several harness processes on the same file.
+ *
+ * By digest, a query belongs to the shard of its digest hash, so all queries of a digest are in one shard and
+ * SAMPLE_PER_DIGEST and the per digest benchmark stay exact. By range, a record belongs to the shard whose byte
+ * range holds its first byte, and the other ranges are skipped without decoding them.
+ */
+public class Shard {
+    enum By {
+        DIGEST,
+        RANGE,
+    }
+
+    final int index;
+    final int count;
+    final By by;
+
+    Shard(int index, int count, By by) {
+        if (count <= 0 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("invalid shard " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+        this.by = by;
+    }
+
+    /**
+     * @param spec "i/n", i is 0-based
+     * @param by   "digest" or "range", default digest
+     */
+    static Shard parse(String spec, String by) {
+        String[] s = spec.trim().split("/");
+        if (s.length != 2) {
+            throw new IllegalArgumentException("invalid shard " + spec + ", expect i/n");
+        }
+        return new Shard(Integer.parseInt(s[0].trim()), Integer.parseInt(s[1].trim()),
+                by == null ? By.DIGEST : By.valueOf(by.trim().toUpperCase()));
+    }
+
+    boolean isRange() {
+        return by == By.RANGE;
+    }
+
+    boolean ownsDigest(long hash) {
+        return by != By.DIGEST || Math.floorMod(hash, (long) count) == index;
+    }
+
+    long rangeStart(long length) {
+        return by == By.RANGE ? length / count * index + Math.min(index, length % count) : 0;
+    }
+
+    long rangeEnd(long length) {
+        return by == By.RANGE ? rangeStart(length) + length / count + (index < length % count ? 1 : 0) : length;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count + " by " + by.toString().toLowerCase();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merge the result folders of the diff mode shards into OUTPUT_DIR.
+ *
+ * Every shard writes OUTCOMES, one line per diffed query: audit log line, error type, number of its files in the
+ * error type folder and the audit record for the replay log. The merge orders all queries by line and numbers
+ * their files again, so the merged folder is the same as the one of a single process with DIFF_THREADS = 1,
+ * except for the caps every shard applies on its own: FAILURE_EXEMPLARS, SAMPLE_PER_SHAPE and SAMPLE_PER_DIGEST
+ * with -shardby range can let up to the number of shards times of queries through.
+ */
+public class ShardMerge {
+    private static final Logger LOGGER = LogManager.getLogger(ShardMerge.class);
+
+    static final String OUTCOMES = "outcomes.tsv";
+    private static final String SHAPE_COVERAGE = "shape_coverage.txt";
+
+    private static class Outcome {
+        String dir;
+        long line;
+        SQLog.ErrorType type;
+        long fileId;
+        String auditLog;
+    }
+
+    private static class ShapeRow {
+        String shape;
+        long digests;
+        long queries;
+        long executed;
+        long failed;
+        String example;
+    }
+
+    /**
+     * OUTPUT_DIR is cleaned by Config.init(), the shard folders must not be in it
+     */
+    static void checkDirs(List<String> dirs) throws IOException {
+        String output = new File(Config.OUTPUT_DIR).getCanonicalPath() + File.separator;
+        for (String dir : dirs) {
+            File file = new File(dir.trim());
+            if (!new File(file, OUTCOMES).exists()) {
+                throw new IllegalArgumentException(dir + " has no " + OUTCOMES + ", not the output of a shard");
+            }
+            if ((file.getCanonicalPath() + File.separator).startsWith(output)) {
+                throw new IllegalArgumentException(dir + " is in " + Config.OUTPUT_DIR + ", move it out first");
+            }
+        }
+    }
+
+    public static void merge(List<String> dirs) throws IOException {
+        List<Outcome> outcomes = new ArrayList<>();
+        for (String dir : dirs) {
+            readOutcomes(dir.trim(), outcomes);
+        }
+        // lines are unique across shards, and sorting puts the parallel diffs of a shard back in order
+        outcomes.sort(Comparator.comparingLong(o -> o.line));
+
+        Map<String, String> statsFlags = readStatsFlags(dirs);
+        new File(Config.OUTPUT_DIR + "/" + StatsCorrelation.SUMMARY).delete();
+
+        Map<SQLog.ErrorType, Long> types = new EnumMap<>(SQLog.ErrorType.class);
+        long fileId = 0;
+        try (BufferedWriter replay = new BufferedWriter(
+                new FileWriter(Config.OUTPUT_DIR + "/" + Config.REPLAY_LOG))) {
+            for (Outcome outcome : outcomes) {
+                types.merge(outcome.type, 1L, Long::sum);
+                if (outcome.fileId > 0) {
+                    copyFiles(outcome, ++fileId);
+                    String flags = statsFlags.get(outcome.dir + "\t" + outcome.type + "\t" + outcome.fileId);
+                    if (flags != null) {
+                        StatsCorrelation.writeSummary(outcome.line, outcome.type, fileId, flags);
+                    }
+                }
+                if (!outcome.auditLog.isEmpty()) {
+                    replay.write(outcome.auditLog);
+                    replay.newLine();
+                }
+            }
+        }
+
+        mergeShapeCoverage(dirs);
+        FailureClusters.merge(dirs);
+        LOGGER.info("merged {} shards, {} queries: {}", dirs.size(), outcomes.size(), types);
+    }
+
+    private static void readOutcomes(String dir, List<Outcome> outcomes) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(new File(dir, OUTCOMES)), 1 << 16)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                // the audit record is the last field, it may hold tabs
+                String[] s = line.split("\t", 4);
+                Outcome outcome = new Outcome();
+                outcome.dir = dir;
+                outcome.line = Long.parseLong(s[0]);
+                outcome.type = SQLog.ErrorType.valueOf(s[1]);
+                outcome.fileId = Long.parseLong(s[2]);
+                outcome.auditLog = s.length > 3 ? s[3] : "";
+                outcomes.add(outcome);
+            }
+        }
+    }
+
+    /**
+     * Flags of the stats correlation summary of every shard, by dir, type and number of the query files
+     */
+    private static Map<String, String> readStatsFlags(List<String> dirs) throws IOException {
+        Map<String, String> flags = new HashMap<>();
+        for (String dir : dirs) {
+            File file = new File(dir.trim(), StatsCorrelation.SUMMARY);
+            if (!file.exists()) {
+                continue;
+            }
+            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+                // skip the header
+                String line = br.readLine();
+                while ((line = br.readLine()) != null) {
+                    // line, type, file, flags
+                    String[] s = line.split("\t", -1);
+                    if (s.length == 4) {
+                        flags.put(dir.trim() + "\t" + s[1] + "\t" + s[2], s[3]);
+                    }
+                }
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Copy the files "{fileId}_*" of the query to its new number
+     */
+    private static void copyFiles(Outcome outcome, long fileId) throws IOException {
+        String type = outcome.type.toString().toLowerCase();
+        String prefix = outcome.fileId + "_";
+        File[] files = new File(outcome.dir, type).listFiles((d, name) -> name.startsWith(prefix));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            FileUtils.copyFile(file, new File(Config.OUTPUT_DIR + "/" + type,
+                    fileId + "_" + file.getName().substring(prefix.length())));
+        }
+    }
+
+    /**
+     * Sum the rows of the same shape pair. SAMPLE_PER_SHAPE is applied by each shard, so the executed queries
+     * can be up to the number of shards times of a single process.
+     */
+    private static void mergeShapeCoverage(List<String> dirs) throws IOException {
+        Map<String, ShapeRow> rows = new LinkedHashMap<>();
+        String header = null;
+        for (String dir : dirs) {
+            File file = new File(dir.trim(), SHAPE_COVERAGE);
+            if (!file.exists()) {
+                continue;
+            }
+            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+                header = br.readLine();
+                String line;
+                while ((line = br.readLine()) != null) {
+                    // old shape, new shape, digests, queries, executed, failed, coverage, example
+                    String[] s = line.split("\t");
+                    if (s.length < 8) {
+                        continue;
+                    }
+                    ShapeRow row = rows.computeIfAbsent(s[0] + "\t" + s[1], k -> new ShapeRow());
+                    row.shape = s[0] + "\t" + s[1];
+                    row.digests += Long.parseLong(s[2]);
+                    row.queries += Long.parseLong(s[3]);
+                    row.executed += Long.parseLong(s[4]);
+                    row.failed += Long.parseLong(s[5]);
+                    if (row.example == null) {
+                        row.example = s[7];
+                    }
+                }
+            }
+        }
+        if (header == null) {
+            return;
+        }
+
+        List<ShapeRow> sorted = new ArrayList<>(rows.values());
+        sorted.sort((a, b) -> Long.compare(b.queries, a.queries));
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/" + SHAPE_COVERAGE))) {
+            bw.write(header);
+            bw.newLine();
+            for (ShapeRow row : sorted) {
+                bw.write(row.shape + "\t" + row.digests + "\t" + row.queries + "\t" + row.executed + "\t"
+                        + row.failed + "\t"
+                        + (row.queries == 0 ? "-" : String.format("%.2f%%", row.executed * 100.0 / row.queries))
+                        + "\t" + row.example);
+                bw.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.util.Arrays;
+
+/**
+ * Per digest latency histogram with the bucket layout of {@link LatencyHistogram}, but only the used buckets
+ * are stored: each entry packs (bucket << 48 | count) and entries are sorted by bucket. A digest seen a few
+ * times costs a few longs instead of the full bucket array. Not thread safe.
+ */
+public class SparseHistogram {
+    private static final int COUNT_BITS = 48;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private long[] entries = new long[2];
+    private int size = 0;
+
+    public void record(long value) {
+        add(LatencyHistogram.bucketOf(value), 1);
+    }
+
+    public void merge(SparseHistogram other) {
+        for (int i = 0; i < other.size; i++) {
+            add(bucket(other.entries[i]), count(other.entries[i]));
+        }
+    }
+
+    void add(int bucket, long count) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int b = bucket(entries[mid]);
+            if (b < bucket) {
+                lo = mid + 1;
+            } else if (b > bucket) {
+                hi = mid - 1;
+            } else {
+                entries[mid] += count;
+                return;
+            }
+        }
+
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        System.arraycopy(entries, lo, entries, lo + 1, size - lo);
+        entries[lo] = ((long) bucket << COUNT_BITS) | count;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int bucketAt(int i) {
+        return bucket(entries[i]);
+    }
+
+    public long countAt(int i) {
+        return count(entries[i]);
+    }
+
+    /**
+     * @param percentile in range [0, 100], result clamped to [min, max]
+     */
+    public long getPercentile(double percentile, long min, long max) {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += count(entries[i]);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < size; i++) {
+            seen += count(entries[i]);
+            if (seen >= rank) {
+                int b = bucket(entries[i]);
+                long mid = (LatencyHistogram.lowerBoundOf(b) + LatencyHistogram.upperBoundOf(b)) / 2;
+                return Math.max(min, Math.min(max, mid));
+            }
+        }
+        return max;
+    }
+
+    private static int bucket(long entry) {
+        return (int) (entry >>> COUNT_BITS);
+    }
+
+    private static long count(long entry) {
+        return entry & COUNT_MASK;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+/**
+ * SQL digest computed locally, for audit logs written by FE versions without the Digest= field.
+ *
+ * The sql is normalized in one pass: comments are dropped, whitespace is collapsed, keywords and identifiers
+ * are lower cased, string and number literals become '?' and literal IN-lists collapse to a single '?',
+ * e.g. "SELECT * FROM t WHERE a IN (1, 2,3) AND b = 'x'" is normalized to "select*from t where a in(?)and b=?".
+ * The digest is a 128-bit hash of the normalized text, printed as 32 hex chars like the FE digest.
+ */
+public final class SqlDigest {
+    private static final ThreadLocal<char[][]> BUFFER = ThreadLocal.withInitial(() -> new char[][] {
+            new char[1024], new char[1024]});
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+    private static final byte BLANK = 1;
+    private static final byte DIGIT = 2;
+    private static final byte IDENTIFIER = 3;
+    private static final byte UPPER = 4;
+
+    private static final byte[] CLASS = new byte[128];
+
+    static {
+        for (int c = 0; c <= ' '; c++) {
+            CLASS[c] = BLANK;
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            CLASS[c] = DIGIT;
+        }
+        for (int c = 'a'; c <= 'z'; c++) {
+            CLASS[c] = IDENTIFIER;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            CLASS[c] = UPPER;
+        }
+        CLASS['_'] = IDENTIFIER;
+        CLASS['$'] = IDENTIFIER;
+        CLASS['@'] = IDENTIFIER;
+    }
+
+    private SqlDigest() {
+    }
+
+    public static String normalize(String sql) {
+        char[][] buffer = buffer(sql.length());
+        sql.getChars(0, sql.length(), buffer[0], 0);
+        int length = normalize(buffer[0], sql.length(), buffer[1]);
+        return new String(buffer[1], 0, length);
+    }
+
+    /**
+     * 64-bit digest, for in-memory keys
+     */
+    public static long hash64(String sql) {
+        char[][] buffer = buffer(sql.length());
+        sql.getChars(0, sql.length(), buffer[0], 0);
+        int length = normalize(buffer[0], sql.length(), buffer[1]);
+
+        char[] out = buffer[1];
+        long h = FNV_OFFSET;
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            h = (h ^ (out[i] << 16 | out[i + 1])) * FNV_PRIME;
+        }
+        if (i < length) {
+            h = (h ^ out[i]) * FNV_PRIME;
+        }
+        return mix(h ^ length);
+    }
+
+    /**
+     * 128-bit digest as 32 hex chars
+     */
+    public static String digest(String sql) {
+        char[][] buffer = buffer(sql.length());
+        sql.getChars(0, sql.length(), buffer[0], 0);
+        int length = normalize(buffer[0], sql.length(), buffer[1]);
+
+        char[] out = buffer[1];
+        long h1 = FNV_OFFSET;
+        long h2 = GOLDEN;
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            int c = out[i] << 16 | out[i + 1];
+            h1 = (h1 ^ c) * FNV_PRIME;
+            h2 = Long.rotateLeft(h2 ^ c, 23) * GOLDEN;
+        }
+        if (i < length) {
+            h1 = (h1 ^ out[i]) * FNV_PRIME;
+            h2 = Long.rotateLeft(h2 ^ out[i], 23) * GOLDEN;
+        }
+        return hex(mix(h1 ^ length)) + hex(mix(h2 ^ length));
+    }
+
+    private static char[][] buffer(int length) {
+        char[][] buffer = BUFFER.get();
+        if (buffer[0].length < length) {
+            // normalized text is never longer than the sql
+            buffer[0] = new char[length * 2];
+            buffer[1] = new char[length * 2];
+        }
+        return buffer;
+    }
+
+    private static byte classOf(char c) {
+        return c < 128 ? CLASS[c] : IDENTIFIER;
+    }
+
+    /**
+     * @return length of the normalized sql written to out
+     */
+    static int normalize(char[] sql, int n, char[] out) {
+        int o = 0;
+        int i = 0;
+        int depth = 0;
+        int inListDepth = -1;
+        // the last token was a word or literal, a following word needs a blank in between
+        boolean lastWord = false;
+        boolean lastLiteral = false;
+        boolean lastIn = false;
+
+        while (i < n) {
+            char c = sql[i];
+            byte type = classOf(c);
+            if (type == BLANK) {
+                i++;
+                continue;
+            }
+
+            if (type == IDENTIFIER || type == UPPER) {
+                int start = i;
+                if (lastWord) {
+                    out[o++] = ' ';
+                }
+                while (i < n) {
+                    char ch = sql[i];
+                    byte t = classOf(ch);
+                    if (t == IDENTIFIER || t == DIGIT) {
+                        out[o++] = ch;
+                    } else if (t == UPPER) {
+                        out[o++] = (char) (ch + 32);
+                    } else {
+                        break;
+                    }
+                    i++;
+                }
+                lastIn = i - start == 2 && out[o - 2] == 'i' && out[o - 1] == 'n';
+                lastWord = true;
+                lastLiteral = false;
+                continue;
+            }
+
+            if (c == '\'' || c == '"' || isNumberStart(sql, n, i)) {
+                i = skipLiteral(sql, n, i);
+                if (lastWord) {
+                    out[o++] = ' ';
+                }
+                out[o++] = '?';
+                lastWord = true;
+                lastLiteral = true;
+                lastIn = false;
+                continue;
+            }
+
+            if (isComment(sql, n, i)) {
+                i = skipComment(sql, n, i);
+                continue;
+            }
+
+            if (c == '`') {
+                int end = i + 1;
+                while (end < n && sql[end] != '`') {
+                    end++;
+                }
+                if (lastWord) {
+                    out[o++] = ' ';
+                }
+                for (int k = i + 1; k < end; k++) {
+                    char ch = sql[k];
+                    out[o++] = ch >= 'A' && ch <= 'Z' ? (char) (ch + 32) : ch;
+                }
+                i = Math.min(n, end + 1);
+                lastWord = true;
+                lastLiteral = false;
+                lastIn = false;
+                continue;
+            }
+
+            if (c == ',' && lastLiteral && depth == inListDepth) {
+                int next = skipBlank(sql, n, i + 1);
+                if (next < n && (sql[next] == '\'' || sql[next] == '"' || isNumberStart(sql, n, next))) {
+                    // collapse "?, ?" in an IN-list
+                    i = skipLiteral(sql, n, next);
+                    continue;
+                }
+            }
+
+            if (c == '(') {
+                depth++;
+                if (lastIn) {
+                    inListDepth = depth;
+                }
+            } else if (c == ')') {
+                if (depth == inListDepth) {
+                    inListDepth = -1;
+                }
+                depth--;
+            }
+            out[o++] = c;
+            lastWord = false;
+            lastLiteral = false;
+            lastIn = false;
+            i++;
+        }
+        return o;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNumberStart(char[] sql, int n, int i) {
+        char c = sql[i];
+        return isDigit(c) || (c == '.' && i + 1 < n && isDigit(sql[i + 1]));
+    }
+
+    private static boolean isComment(char[] sql, int n, int i) {
+        char c = sql[i];
+        if (c == '#') {
+            return true;
+        }
+        if (i + 1 >= n) {
+            return false;
+        }
+        char next = sql[i + 1];
+        return (c == '-' && next == '-') || (c == '/' && next == '*');
+    }
+
+    private static int skipComment(char[] sql, int n, int i) {
+        if (sql[i] == '/') {
+            i += 2;
+            while (i + 1 < n && !(sql[i] == '*' && sql[i + 1] == '/')) {
+                i++;
+            }
+            return Math.min(n, i + 2);
+        }
+        while (i < n && sql[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipBlank(char[] sql, int n, int i) {
+        while (i < n) {
+            if (classOf(sql[i]) == BLANK) {
+                i++;
+            } else if (isComment(sql, n, i)) {
+                i = skipComment(sql, n, i);
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int skipLiteral(char[] sql, int n, int i) {
+        char c = sql[i];
+        if (c == '\'' || c == '"') {
+            i++;
+            while (i < n) {
+                char ch = sql[i];
+                if (ch == '\\') {
+                    i += 2;
+                } else if (ch == c) {
+                    // '' is an escaped quote
+                    if (i + 1 < n && sql[i + 1] == c) {
+                        i += 2;
+                    } else {
+                        return i + 1;
+                    }
+                } else {
+                    i++;
+                }
+            }
+            return n;
+        }
+
+        // number: 12, 1.5, .5, 1e-3, 0x1F
+        i++;
+        while (i < n) {
+            char ch = sql[i];
+            byte t = classOf(ch);
+            if (t == DIGIT || ch == '.' || ((t == IDENTIFIER || t == UPPER) && ch < 128)) {
+                i++;
+            } else if ((ch == '-' || ch == '+') && (sql[i - 1] == 'e' || sql[i - 1] == 'E')) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return Math.min(i, n);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static String hex(long v) {
+        String s = Long.toHexString(v);
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = s.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        return sb.append(s).toString();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.ITable;
+import org.dbunit.ext.mysql.MySqlDataTypeFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One connection to a FE, for the modes running many sessions in parallel. StarrocksUtils keeps the single
+ * connection of the diff mode.
+ */
+public class StarrocksSession implements Closeable {
+    private Connection connection;
+    private IDatabaseConnection databaseConnection;
+    private final String httpUrl;
+    private final String connectUrl;
+    private final String ip;
+    private final int httpPort;
+
+    // second connection to the same FE, to stream two results at the same time
+    private StarrocksSession companion;
+
+    // session state, to skip redundant statements
+    private String db;
+    private Boolean newPlanner;
+    private final Map<String, String> variables = new HashMap<>();
+
+    public StarrocksSession(String connectUrl, String ip, int httpPort) throws Exception {
+        Class.forName(Config.DRIVER_CLASS);
+        httpUrl = "http://" + ip + ":" + httpPort + "/query_profile?query_id=";
+        this.connectUrl = connectUrl;
+        this.ip = ip;
+        this.httpPort = httpPort;
+        connect();
+    }
+
+    public StarrocksSession() throws Exception {
+        this(Config.CONNECT_URL, Config.IP, Config.HTTP_PORT);
+    }
+
+    private void connect() throws Exception {
+        connection = DriverManager.getConnection(connectUrl, Config.USER, Config.PASS);
+        databaseConnection = new DatabaseConnection(connection);
+        databaseConnection.getConfig()
+                .setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new MySqlDataTypeFactory());
+
+        execute("set is_report_success = true;");
+        if (Config.FRAGMENT_INSTANCE > 0) {
+            execute("set parallel_fragment_exec_instance_num = " + Config.FRAGMENT_INSTANCE + ";");
+        }
+    }
+
+    /**
+     * Replace a broken connection by a new one to the same FE. The db, planner and variables are set again by the
+     * next useDb, enableNewPlanner etc.
+     */
+    public void reconnect() throws Exception {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // ignore
+        }
+        db = null;
+        newPlanner = null;
+        variables.clear();
+        connect();
+    }
+
+    public void useDb(String dbName) throws SQLException {
+        if (dbName.equals(db)) {
+            return;
+        }
+        db = null;
+        execute("use " + dbName + ";");
+        db = dbName;
+    }
+
+    public void enableNewPlanner() throws SQLException {
+        if (Boolean.TRUE.equals(newPlanner)) {
+            return;
+        }
+        newPlanner = null;
+        execute("set enable_cbo = true;");
+        newPlanner = true;
+    }
+
+    public void disableNewPlanner() throws SQLException {
+        if (Boolean.FALSE.equals(newPlanner)) {
+            return;
+        }
+        newPlanner = null;
+        execute("set enable_cbo = false;");
+        newPlanner = false;
+    }
+
+    public void setVariable(String name, String value) throws SQLException {
+        if (value.equals(variables.get(name))) {
+            return;
+        }
+        variables.remove(name);
+        execute("set " + name + " = " + value + ";");
+        variables.put(name, value);
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery(sql);
+        }
+    }
+
+    public Pair<ITable, Long> query(String sql) throws Exception {
+        long start = System.currentTimeMillis();
+        ITable result = databaseConnection.createQueryTable("RESULT", sql);
+        return Pair.of(result, (System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Start the query and read its rows as they arrive, see {@link ResultStream}
+     */
+    public ResultStream stream(String sql) throws SQLException {
+        return new ResultStream(connection, sql);
+    }
+
+    /**
+     * Another session to the same FE, opened on first use and closed with this one
+     */
+    public StarrocksSession companion() throws Exception {
+        if (companion == null || !companion.isValid()) {
+            if (companion != null) {
+                companion.close();
+            }
+            companion = new StarrocksSession(connectUrl, ip, httpPort);
+        }
+        return companion;
+    }
+
+    /**
+     * Run the query and drain the result without keeping it
+     *
+     * @return latency in ms
+     */
+    public long run(String sql) throws SQLException {
+        long start = System.currentTimeMillis();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(sql)) {
+            while (rs.next()) {
+                // drain
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    public String explain(String sql, String model) throws Exception {
+        return StarrocksUtils.explain(databaseConnection, sql, model);
+    }
+
+    public String lastQueryID() throws Exception {
+        ITable result = databaseConnection.createQueryTable("1", "select last_query_id() as query;");
+        return result.getValue(0, "query").toString();
+    }
+
+    public String profile(String queryID) throws IOException {
+        return StarrocksUtils.profile(httpUrl, queryID);
+    }
+
+    public boolean isValid() {
+        try {
+            return connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (companion != null) {
+            companion.close();
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // ignore
+        }
+    }
+}
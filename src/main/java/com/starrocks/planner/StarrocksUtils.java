@@ -43,7 +43,6 @@ public class StarrocksUtils extends JdbcBasedDBTestCase {
     protected static Connection connection;
     protected static IDatabaseConnection databaseConnection;
 
-    protected static String httpAuth;
     protected static String httpUrl;
     protected static OkHttpClient client = new OkHttpClient();
     private static final String STATS_DB = "_statistics_";
@@ -57,7 +56,6 @@ public class StarrocksUtils extends JdbcBasedDBTestCase {
                     .setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new MySqlDataTypeFactory());
             connection = databaseConnection.getConnection();
 
-            httpAuth = "Basic " + Base64.getEncoder().encodeToString((Config.USER + ":" + Config.PASS).getBytes());
             httpUrl = "http://" + Config.IP + ":" + Config.HTTP_PORT + "/query_profile?query_id=";
 
             enableProfile();
@@ -119,6 +117,11 @@ public class StarrocksUtils extends JdbcBasedDBTestCase {
     }
 
     public static String explain(String sql, String model) throws SQLException, DataSetException {
+        return explain(databaseConnection, sql, model);
+    }
+
+    static String explain(IDatabaseConnection databaseConnection, String sql, String model)
+            throws SQLException, DataSetException {
         ITable explain = databaseConnection.createQueryTable("EXPLAIN", "explain " + model + " " + sql);
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < explain.getRowCount(); i++) {
@@ -134,9 +137,14 @@ public class StarrocksUtils extends JdbcBasedDBTestCase {
     }
 
     public static String profile(String queryID) throws IOException {
+        return profile(httpUrl, queryID);
+    }
+
+    static String profile(String httpUrl, String queryID) throws IOException {
+        long fetchStart = System.currentTimeMillis();
         Request request = new Request.Builder()
                 .url(httpUrl + queryID)
-                .header("Authorization", httpAuth)
+                .header("Authorization", httpAuth())
                 .build();
 
         Response response = client.newCall(request).execute();
@@ -146,19 +154,35 @@ public class StarrocksUtils extends JdbcBasedDBTestCase {
         }
 
         String data = response.body().string();
+        Metrics.recordProfileFetch(System.currentTimeMillis() - fetchStart);
 
         int start = data.indexOf("  Summary:");
         int end = data.indexOf("</pre></div></body></html>");
         return data.substring(start, end);
     }
 
+    private static String httpAuth() {
+        return "Basic " + Base64.getEncoder().encodeToString((Config.USER + ":" + Config.PASS).getBytes());
+    }
+
+    /**
+     * Write the column statistics to stats.csv and index them for the stats correlation of failed queries
+     */
     public static void exportStatistics() throws Exception {
-        if (!Config.COLLECT_RESULT_DATA) {
+        if (!Config.COLLECT_STATISTIC) {
             return;
         }
         String queryStats = "select * from " + STATS_DB + "." + STATS_TABLE;
-        ITable statsTable = databaseConnection.createQueryTable("STATS", queryStats);
+        ITable statsTable;
+        try {
+            statsTable = databaseConnection.createQueryTable("STATS", queryStats);
+        } catch (Exception e) {
+            LOGGER.warn("export statistics failed, no stats correlation", e);
+            return;
+        }
         writeToCSV(statsTable);
+        StatisticsIndex.load(statsTable);
+        LOGGER.info("statistics of {} tables loaded", StatisticsIndex.size());
     }
 
     private static void writeToCSV(ITable table) throws Exception {
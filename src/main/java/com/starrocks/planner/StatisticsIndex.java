@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.NoSuchColumnException;
+import org.dbunit.dataset.datatype.DataType;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory index of the exported column statistics by "db.table", built once at start, so the lookups of the
+ * stats correlation cost a hash lookup per table.
+ */
+public class StatisticsIndex {
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static volatile Map<String, TableStats> tables = null;
+
+    static class ColumnStats {
+        String name;
+        long rowCount = -1;
+        long ndv = -1;
+        long nulls = -1;
+        String min = "";
+        String max = "";
+        // epoch ms, -1 if unknown
+        long updateTime = -1;
+    }
+
+    static class TableStats {
+        String name;
+        long rowCount = -1;
+        // oldest update of its columns, epoch ms
+        long updateTime = -1;
+        final Map<String, ColumnStats> columns = new LinkedHashMap<>();
+    }
+
+    /**
+     * @param stats rows of _statistics_.table_statistic_v1, one per column
+     */
+    static void load(ITable stats) throws DataSetException {
+        Map<String, TableStats> index = new HashMap<>();
+        for (int i = 0; i < stats.getRowCount(); i++) {
+            String table = value(stats, i, "table_name");
+            String column = value(stats, i, "column_name");
+            if (table == null || column == null) {
+                continue;
+            }
+            // "default_cluster:db" and "db.table" of older versions
+            String db = value(stats, i, "db_name");
+            db = db == null ? "" : db.substring(db.indexOf(':') + 1);
+            if (table.contains(".")) {
+                db = db.isEmpty() ? table.substring(0, table.lastIndexOf('.')) : db;
+                table = table.substring(table.lastIndexOf('.') + 1);
+            }
+            String key = (db + "." + table).toLowerCase(Locale.ROOT);
+
+            ColumnStats cs = new ColumnStats();
+            cs.name = column;
+            cs.rowCount = number(value(stats, i, "row_count"));
+            cs.ndv = number(value(stats, i, "distinct_count"));
+            cs.nulls = number(value(stats, i, "null_count"));
+            cs.min = orEmpty(value(stats, i, "min"));
+            cs.max = orEmpty(value(stats, i, "max"));
+            cs.updateTime = time(value(stats, i, "update_time"));
+
+            TableStats ts = index.computeIfAbsent(key, k -> new TableStats());
+            ts.name = key;
+            ts.columns.put(column.toLowerCase(Locale.ROOT), cs);
+            ts.rowCount = Math.max(ts.rowCount, cs.rowCount);
+            if (cs.updateTime >= 0 && (ts.updateTime < 0 || cs.updateTime < ts.updateTime)) {
+                ts.updateTime = cs.updateTime;
+            }
+        }
+        tables = index;
+    }
+
+    static boolean isLoaded() {
+        return tables != null;
+    }
+
+    static int size() {
+        return tables == null ? 0 : tables.size();
+    }
+
+    /**
+     * @param db db of the query, "default_cluster:db" is accepted
+     * @param table "table" of the db, or "db.table"
+     * @return null if the table has no statistics
+     */
+    static TableStats get(String db, String table) {
+        Map<String, TableStats> index = tables;
+        if (index == null) {
+            return null;
+        }
+        String name = table.replace("`", "").toLowerCase(Locale.ROOT);
+        if (!name.contains(".")) {
+            name = db.substring(db.indexOf(':') + 1).toLowerCase(Locale.ROOT) + "." + name;
+        }
+        return index.get(name);
+    }
+
+    private static String value(ITable table, int row, String column) throws DataSetException {
+        try {
+            Object value = table.getValue(row, column);
+            return value == null ? null : DataType.asString(value);
+        } catch (NoSuchColumnException e) {
+            return null;
+        }
+    }
+
+    private static String orEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static long number(String value) {
+        try {
+            return value == null ? -1 : (long) Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long time(String value) {
+        if (value == null || value.length() < 19) {
+            return -1;
+        }
+        try {
+            return LocalDateTime.parse(value.substring(0, 19).replace('T', ' '), DATE_TIME_FORMATTER)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+}
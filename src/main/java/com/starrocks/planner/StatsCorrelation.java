@@ -0,0 +1,265 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Statistics of the tables and columns a failed or slow query references, from {@link StatisticsIndex}, and
+ * the estimated cardinality of each plan node of `explain costs` against the rows of the new planner's profile.
+ *
+ * Flags: MISSING_STATS for a table without statistics, STALE_STATS for statistics older than STATS_STALE_HOURS
+ * or a scan returning more than twice the rows of its table statistics, MISESTIMATE for a plan node whose
+ * estimated and actual rows differ by STATS_MISESTIMATE times.
+ */
+public class StatsCorrelation {
+    static final String SUMMARY = "stats_correlation.tsv";
+
+    // "from db.t1", "join `t2`"
+    private static final Pattern SQL_TABLE = Pattern.compile("(?i)\\b(?:from|join)\\s+([`\\w]+(?:\\.[`\\w]+)?)");
+    // "with t1 as (", ", t2 (c1, c2) as (" of a CTE
+    private static final Pattern CTE_NAME = Pattern.compile("(?i)(?:\\bwith|,)\\s*(?:recursive\\s+)?([`\\w]+)"
+            + "\\s*(?:\\([^()]*\\)\\s*)?as\\s*\\(");
+    // "TABLE: t1" of the old planner, "table: t1, rollup: t1" of the new one
+    private static final Pattern EXPLAIN_TABLE = Pattern.compile("(?i)^[\\s|]*table:\\s*([`\\w.]+)");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern NODE = Pattern.compile("^[\\s|-]*(\\d+):([A-Za-z][A-Za-z_ ]*[A-Za-z])");
+    private static final Pattern CARDINALITY = Pattern.compile("\\bcardinality[:=]\\s*([0-9.Ee+]+)");
+    // differences of small row counts are not reported
+    private static final long MIN_MISESTIMATE_ROWS = 1000;
+
+    private final Set<String> flags = new TreeSet<>();
+    private final StringBuilder report = new StringBuilder();
+
+    private static class PlanNode {
+        String name;
+        long estimated = -1;
+        String table;
+    }
+
+    public static StatsCorrelation correlate(String db, String sql, String explain, QueryProfile profile) {
+        StatsCorrelation correlation = new StatsCorrelation();
+        Map<Integer, PlanNode> nodes = parsePlan(explain == null ? "" : explain);
+        Map<Integer, Long> actual = profile == null ? new HashMap<>() : actualRows(profile);
+        correlation.tables(db, sql, nodes, actual);
+        correlation.cardinality(nodes, actual);
+        return correlation;
+    }
+
+    public String getFlags() {
+        return String.join(",", flags);
+    }
+
+    @Override
+    public String toString() {
+        return report.toString();
+    }
+
+    /**
+     * Whether the "from" at this offset is inside "extract(unit from col)", the nearest open parenthesis before it
+     * follows extract
+     */
+    static boolean isExtractArgument(String sql, int from) {
+        int depth = 0;
+        for (int i = from - 1; i >= 0; i--) {
+            char c = sql.charAt(i);
+            if (c == ')') {
+                depth++;
+            } else if (c == '(') {
+                if (depth-- == 0) {
+                    return sql.substring(0, i).trim().toLowerCase(Locale.ROOT).endsWith("extract");
+                }
+            }
+        }
+        return false;
+    }
+
+    private void tables(String db, String sql, Map<Integer, PlanNode> nodes, Map<Integer, Long> actual) {
+        Set<String> tables = new LinkedHashSet<>();
+        for (PlanNode node : nodes.values()) {
+            if (node.table != null) {
+                tables.add(node.table);
+            }
+        }
+        Matcher matcher;
+        if (tables.isEmpty()) {
+            // no explain: the names after from and join, without CTE names and "extract(x from col)"
+            Set<String> ctes = new HashSet<>();
+            matcher = CTE_NAME.matcher(sql);
+            while (matcher.find()) {
+                ctes.add(matcher.group(1).replace("`", "").toLowerCase(Locale.ROOT));
+            }
+            matcher = SQL_TABLE.matcher(sql);
+            while (matcher.find()) {
+                String table = matcher.group(1).replace("`", "");
+                if (!ctes.contains(table.toLowerCase(Locale.ROOT)) && !isExtractArgument(sql, matcher.start())) {
+                    tables.add(table);
+                }
+            }
+        }
+        Set<String> identifiers = new HashSet<>();
+        matcher = IDENTIFIER.matcher(sql);
+        while (matcher.find()) {
+            identifiers.add(matcher.group().toLowerCase(Locale.ROOT));
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long now = System.currentTimeMillis();
+        long staleMs = (long) (Config.STATS_STALE_HOURS * 3600 * 1000);
+        report.append("Table\tRows\tUpdated\tFlag\n");
+        Set<String> seen = new HashSet<>();
+        for (String table : tables) {
+            StatisticsIndex.TableStats stats = StatisticsIndex.get(db, table);
+            if (stats == null) {
+                // the scan nodes of the explain, or the named tables of the SQL, without CTE names
+                if (seen.add(table.toLowerCase(Locale.ROOT))) {
+                    report.append(table).append("\t-\t-\tMISSING_STATS\n");
+                    flags.add("MISSING_STATS");
+                }
+                continue;
+            }
+            if (!seen.add(stats.name)) {
+                continue;
+            }
+
+            String flag = "";
+            if (stats.updateTime >= 0 && now - stats.updateTime > staleMs) {
+                flag = "STALE_STATS";
+            }
+            for (Map.Entry<Integer, PlanNode> node : nodes.entrySet()) {
+                Long rows = actual.get(node.getKey());
+                if (rows != null && stats.rowCount > 0 && rows > stats.rowCount * 2 && node.getValue().table != null
+                        && StatisticsIndex.get(db, node.getValue().table) == stats) {
+                    flag = "STALE_STATS";
+                    report.append("# scan ").append(node.getKey()).append(" returned ").append(rows)
+                            .append(" rows, statistics have ").append(stats.rowCount).append('\n');
+                }
+            }
+            if (!flag.isEmpty()) {
+                flags.add(flag);
+            }
+            report.append(stats.name).append('\t').append(stats.rowCount).append('\t')
+                    .append(stats.updateTime < 0 ? "-" : format.format(new Date(stats.updateTime))).append('\t')
+                    .append(flag).append('\n');
+            for (StatisticsIndex.ColumnStats column : stats.columns.values()) {
+                if (identifiers.contains(column.name.toLowerCase(Locale.ROOT))) {
+                    report.append("  ").append(column.name)
+                            .append("\tndv ").append(column.ndv)
+                            .append("\tnulls ").append(column.nulls)
+                            .append("\tmin ").append(column.min)
+                            .append("\tmax ").append(column.max)
+                            .append("\tupdated ")
+                            .append(column.updateTime < 0 ? "-" : format.format(new Date(column.updateTime)))
+                            .append('\n');
+                }
+            }
+        }
+    }
+
+    private void cardinality(Map<Integer, PlanNode> nodes, Map<Integer, Long> actual) {
+        report.append("\nPlan node\tEstimated rows\tActual rows\tFlag\n");
+        for (Map.Entry<Integer, PlanNode> entry : nodes.entrySet()) {
+            PlanNode node = entry.getValue();
+            Long rows = actual.get(entry.getKey());
+            String flag = "";
+            if (node.estimated >= 0 && rows != null) {
+                long high = Math.max(node.estimated, rows);
+                long low = Math.max(1, Math.min(node.estimated, rows));
+                if (high >= MIN_MISESTIMATE_ROWS && high >= low * Config.STATS_MISESTIMATE) {
+                    flag = "MISESTIMATE";
+                    flags.add(flag);
+                }
+            }
+            report.append(entry.getKey()).append(':').append(node.name).append('\t')
+                    .append(node.estimated < 0 ? "-" : String.valueOf(node.estimated)).append('\t')
+                    .append(rows == null ? "-" : String.valueOf(rows)).append('\t')
+                    .append(flag).append('\n');
+        }
+    }
+
+    /**
+     * @return plan nodes by id, with the first cardinality and table after the node line
+     */
+    static Map<Integer, PlanNode> parsePlan(String explain) {
+        Map<Integer, PlanNode> nodes = new LinkedHashMap<>();
+        PlanNode current = null;
+        for (String line : explain.split("\n")) {
+            Matcher node = NODE.matcher(line);
+            if (node.find()) {
+                current = new PlanNode();
+                current.name = node.group(2);
+                nodes.put(Integer.parseInt(node.group(1)), current);
+                continue;
+            }
+            if (current == null) {
+                continue;
+            }
+            Matcher cardinality = CARDINALITY.matcher(line);
+            if (current.estimated < 0 && cardinality.find()) {
+                current.estimated = (long) Double.parseDouble(cardinality.group(1));
+            }
+            Matcher table = EXPLAIN_TABLE.matcher(line);
+            if (current.table == null && table.find()) {
+                current.table = table.group(1).replace("`", "");
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Output rows per plan node: the sinks and the build side of a join share the id of their node, skip them
+     */
+    static Map<Integer, Long> actualRows(QueryProfile profile) {
+        Map<Integer, Long> rows = new HashMap<>();
+        for (QueryProfile.Operator op : profile.getOperators()) {
+            if (op.planNodeId < 0 || op.name.endsWith("_SINK") || op.name.endsWith("_BUILD")
+                    || op.name.startsWith("DataStreamSender")) {
+                continue;
+            }
+            rows.merge(op.planNodeId, op.rows, Math::max);
+        }
+        return rows;
+    }
+
+    /**
+     * Append the flags of a query to the summary in OUTPUT_DIR
+     */
+    static synchronized void writeSummary(long line, SQLog.ErrorType type, long fileId, String flags)
+            throws IOException {
+        File file = new File(Config.OUTPUT_DIR + "/" + SUMMARY);
+        boolean header = !file.exists();
+        try (FileWriter fw = new FileWriter(file, true)) {
+            if (header) {
+                fw.append("Line\tType\tFile\tFlags\n");
+            }
+            fw.append(String.valueOf(line)).append('\t').append(type.toString()).append('\t')
+                    .append(String.valueOf(fileId)).append('\t').append(flags).append('\n');
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Workload characterization of an audit log: what the queries are made of, weighted by how often they run and
+ * how much time they take.
+ *
+ * One query of every digest is explained (planner old or new) or its SQL text is parsed (planner sql), on
+ * WORKLOAD_THREADS threads while the file is read, and its features are kept per digest: number of joins, join
+ * types, operators, tables, partitions scanned and aggregate functions. The counts and times of the digests are
+ * aggregated as by `--benchmark`. `workload.tsv` lists every feature with the digests and queries having it and
+ * their share of the workload time, the most expensive first per category.
+ */
+public class WorkloadReport {
+    private static final Logger LOGGER = LogManager.getLogger(WorkloadReport.class);
+
+    private static final String[] CATEGORIES = {"JOINS", "JOIN_TYPE", "OPERATOR", "TABLE", "PARTITIONS", "AGGREGATE",
+            "UNPARSED"};
+
+    // "partitions=3/10" of a scan node
+    private static final Pattern PARTITIONS = Pattern.compile("\\bpartitions=(\\d+)/\\d+");
+
+    // the SQL text, for planner sql
+    private static final Pattern SQL_TABLE = Pattern.compile("\\b(?:from|join)\\s+([`\\w.]+)");
+    private static final Pattern SQL_JOIN = Pattern.compile("\\b((?:(?:left|right|full|inner|cross|outer|semi|anti)"
+            + "\\s+)*)join\\b");
+    private static final Pattern SQL_AGGREGATE = Pattern.compile("\\b(count|sum|avg|min|max|ndv|"
+            + "approx_count_distinct|multi_distinct_count|multi_distinct_sum|group_concat|bitmap_union_count|"
+            + "bitmap_union|hll_union_agg|percentile_approx|stddev|stddev_samp|variance|var_samp|any_value)\\s*\\(");
+    private static final Pattern BLANK = Pattern.compile("\\s+");
+
+    private final String path;
+    private final String planner;
+
+    // features by digest, each digest is explained or parsed once
+    private final Map<String, Set<String>> features = new ConcurrentHashMap<>();
+
+    private WorkloadReport(String path, String planner) {
+        this.path = path;
+        this.planner = planner;
+    }
+
+    /**
+     * @param planner old or new to explain the queries, sql to parse the SQL text without a cluster
+     */
+    public static void analyze(String path, String planner) throws Exception {
+        if (!planner.equals("old") && !planner.equals("new") && !planner.equals("sql")) {
+            throw new IllegalArgumentException("-planner of the workload report is old, new or sql: " + planner);
+        }
+        new WorkloadReport(path, planner).run();
+    }
+
+    private void run() throws Exception {
+        DigestTable table = new DigestTable();
+        ExecutorService pool = Executors.newFixedThreadPool(Config.WORKLOAD_THREADS);
+        Semaphore inflight = new Semaphore(Config.WORKLOAD_THREADS * 4);
+        Set<String> seen = new HashSet<>();
+        long bytesTotal = new File(path).length();
+        try (AuditLogReader reader = new AuditLogReader(path)) {
+            String auditLog;
+            while ((auditLog = reader.next()) != null) {
+                Metrics.updateProgress(reader.getPosition(), bytesTotal);
+                BenchmarkTest.refresh(table, auditLog, null, 0, 1);
+
+                Optional<Pair<String, String>> sql = NewPlannerTest.getSQL(auditLog);
+                AuditRecord record = sql.isPresent() ? AuditRecord.parse(auditLog) : null;
+                if (record == null || !seen.add(record.digest)) {
+                    continue;
+                }
+
+                inflight.acquire();
+                pool.execute(() -> {
+                    try {
+                        features.put(record.digest, extract(sql.get().getLeft(), sql.get().getRight()));
+                    } finally {
+                        inflight.release();
+                    }
+                });
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.info("analyzed {} of {} digests", features.size(), seen.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        write(table);
+    }
+
+    private Set<String> extract(String db, String sql) {
+        if (planner.equals("sql")) {
+            return fromSql(sql);
+        }
+        try (FrontendPool.Lease lease = FrontendPool.lease()) {
+            StarrocksSession session = lease.getSession();
+            try {
+                if (!db.isEmpty()) {
+                    session.useDb(db);
+                }
+                if (planner.equals("new")) {
+                    session.enableNewPlanner();
+                } else {
+                    session.disableNewPlanner();
+                }
+                Set<String> result = fromExplain(session.explain(sql, planner.equals("new") ? "costs" : "verbose"));
+                Metrics.recordQuery(SQLog.ErrorType.SUCCESS);
+                return result;
+            } catch (Exception e) {
+                LOGGER.debug("explain failed, sql {}", sql, e);
+                lease.checkConnection();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("workload report connection failed", e);
+        }
+        // the text still tells the tables, joins and functions
+        Metrics.recordQuery(SQLog.ErrorType.OTHER);
+        return fromSql(sql);
+    }
+
+    /**
+     * Features of the plan, from its shape of {@link PlanFingerprint} and the partitions of its scans
+     */
+    static Set<String> fromExplain(String explain) {
+        Set<String> result = new TreeSet<>();
+        int joins = 0;
+        for (String token : PlanFingerprint.normalize(explain).split(";")) {
+            int eq = token.indexOf('=');
+            if (eq > 0) {
+                String key = token.substring(0, eq);
+                String value = token.substring(eq + 1);
+                if (key.equals("TABLE")) {
+                    result.add(feature("TABLE", value));
+                } else if (key.equals("join op")) {
+                    result.add(feature("JOIN_TYPE", value));
+                } else if (key.equals("aggregate")) {
+                    for (String function : value.split(",")) {
+                        if (!function.isEmpty()) {
+                            result.add(feature("AGGREGATE", function));
+                        }
+                    }
+                }
+                continue;
+            }
+            // "|----HASH JOIN" of the tree
+            String operator = token.replaceAll("^[|-]+", "");
+            if (operator.isEmpty() || operator.equals("FRAGMENT")) {
+                continue;
+            }
+            result.add(feature("OPERATOR", operator));
+            if (operator.contains("JOIN")) {
+                joins++;
+            }
+        }
+        result.add(feature("JOINS", joinBucket(joins)));
+
+        Matcher partitions = PARTITIONS.matcher(explain);
+        long scanned = 0;
+        boolean any = false;
+        while (partitions.find()) {
+            scanned += Long.parseLong(partitions.group(1));
+            any = true;
+        }
+        if (any) {
+            result.add(feature("PARTITIONS", partitionBucket(scanned)));
+        }
+        return result;
+    }
+
+    /**
+     * Features of the SQL text, without partitions and with the operators the text shows
+     */
+    static Set<String> fromSql(String sql) {
+        Set<String> result = new TreeSet<>();
+        String text = BLANK.matcher(sql.toLowerCase()).replaceAll(" ");
+
+        Matcher table = SQL_TABLE.matcher(text);
+        while (table.find()) {
+            result.add(feature("TABLE", table.group(1).replace("`", "")));
+        }
+        int joins = 0;
+        Matcher join = SQL_JOIN.matcher(text);
+        while (join.find()) {
+            String type = join.group(1).trim();
+            result.add(feature("JOIN_TYPE", (type.isEmpty() ? "INNER" : type.toUpperCase()) + " JOIN"));
+            joins++;
+        }
+        result.add(feature("JOINS", joinBucket(joins)));
+        Matcher aggregate = SQL_AGGREGATE.matcher(text);
+        while (aggregate.find()) {
+            result.add(feature("AGGREGATE", aggregate.group(1)));
+        }
+
+        if (text.contains("group by") || aggregate.reset().find()) {
+            result.add(feature("OPERATOR", "AGGREGATE"));
+        }
+        if (text.contains("order by")) {
+            result.add(feature("OPERATOR", "SORT"));
+        }
+        if (text.contains(" over(") || text.contains(" over (")) {
+            result.add(feature("OPERATOR", "ANALYTIC"));
+        }
+        if (text.contains(" union ")) {
+            result.add(feature("OPERATOR", "UNION"));
+        }
+        if (text.indexOf("select", text.indexOf("select") + 1) > 0) {
+            result.add(feature("OPERATOR", "SUBQUERY"));
+        }
+        return result;
+    }
+
+    private static String feature(String category, String name) {
+        return category + "\t" + name;
+    }
+
+    static String joinBucket(int joins) {
+        return joins <= 2 ? String.valueOf(joins) : joins <= 5 ? "3-5" : "6+";
+    }
+
+    static String partitionBucket(long partitions) {
+        return partitions <= 1 ? String.valueOf(partitions) : partitions <= 10 ? "2-10"
+                : partitions <= 100 ? "11-100" : "101+";
+    }
+
+    private void write(DigestTable table) throws IOException {
+        // digests, queries, total time by feature
+        Map<String, long[]> totals = new HashMap<>();
+        long workloadTime = 0;
+        long queries = 0;
+        for (int entry = 0; entry < table.size(); entry++) {
+            BenchmarkTest.TimeAndCount tc = table.countersAt(entry);
+            workloadTime += tc.totalTime;
+            queries += tc.count;
+            Set<String> digestFeatures = features.get(table.digestAt(entry).trim());
+            if (digestFeatures == null || digestFeatures.isEmpty()) {
+                // not a query of the diff mode, e.g. without FROM
+                digestFeatures = new TreeSet<>();
+                digestFeatures.add(feature("UNPARSED", "-"));
+            }
+            for (String feature : digestFeatures) {
+                long[] total = totals.computeIfAbsent(feature, k -> new long[3]);
+                total[0]++;
+                total[1] += tc.count;
+                total[2] += tc.totalTime;
+            }
+        }
+
+        List<Map.Entry<String, long[]>> rows = new ArrayList<>(totals.entrySet());
+        rows.sort((a, b) -> {
+            int category = Integer.compare(categoryOrder(a.getKey()), categoryOrder(b.getKey()));
+            return category != 0 ? category : Long.compare(b.getValue()[2], a.getValue()[2]);
+        });
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(Config.OUTPUT_DIR + "/workload.tsv"))) {
+            bw.write("Category" + "\t" + "Name" + "\t" + "Digests" + "\t" + "Queries" + "\t" + "Total time(ms)" + "\t"
+                    + "Time share");
+            bw.newLine();
+            for (Map.Entry<String, long[]> row : rows) {
+                long[] total = row.getValue();
+                bw.write(row.getKey() + "\t" + total[0] + "\t" + total[1] + "\t" + total[2] + "\t"
+                        + BudgetReplay.percent(total[2], workloadTime));
+                bw.newLine();
+            }
+        }
+        LOGGER.info("workload report done: {} queries of {} digests, {} features, {}ms in total", queries,
+                table.size(), totals.size(), workloadTime);
+    }
+
+    private static int categoryOrder(String feature) {
+        String category = feature.substring(0, feature.indexOf('\t'));
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            if (CATEGORIES[i].equals(category)) {
+                return i;
+            }
+        }
+        return CATEGORIES.length;
+    }
+}
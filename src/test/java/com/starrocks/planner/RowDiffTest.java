@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.starrocks.planner;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.SortedTable;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The streamed comparison of RowDiff and the table comparison of StarrocksUnitAssert agree on the same results
+ */
+public class RowDiffTest {
+    private static final String[] COLUMNS = {"k", "v"};
+
+    private static ITable table(Object[][] rows) throws DataSetException {
+        DefaultTable table = new DefaultTable("RESULT",
+                new Column[] {new Column("k", DataType.VARCHAR), new Column("v", DataType.DOUBLE)});
+        for (Object[] row : rows) {
+            table.addRow(row);
+        }
+        return table;
+    }
+
+    // as SQLDiffer.validateResult compares the loaded results
+    private static boolean tablesEqual(ITable oldTable, ITable newTable) throws DataSetException {
+        try {
+            new StarrocksUnitAssert().assertEquals(
+                    new SortedTable(newTable, newTable.getTableMetaData().getColumns()),
+                    new SortedTable(oldTable, oldTable.getTableMetaData().getColumns()));
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    // as SQLDiffer.compareStreams compares the streamed results
+    private static boolean streamsEqual(Object[][] oldRows, Object[][] newRows) {
+        RowDiff diff = new RowDiff(COLUMNS);
+        for (int i = 0; i < Math.max(oldRows.length, newRows.length); i++) {
+            if (i < oldRows.length) {
+                diff.addOld(oldRows[i]);
+            }
+            if (i < newRows.length) {
+                diff.addNew(newRows[i]);
+            }
+        }
+        return diff.isEmpty();
+    }
+
+    private static void assertAgree(boolean expected, Object[][] oldRows, Object[][] newRows)
+            throws DataSetException {
+        ITable oldTable = table(oldRows);
+        ITable newTable = table(newRows);
+        Assert.assertEquals(expected, tablesEqual(oldTable, newTable));
+        Assert.assertEquals(expected, streamsEqual(oldRows, newRows));
+        Assert.assertEquals(expected, new RowDiff(oldTable, newTable).isEmpty());
+    }
+
+    @Test
+    public void testFloatNoise() throws DataSetException {
+        // on both sides of a rounding boundary of 9 digits, in another order
+        assertAgree(true,
+                new Object[][] {{"a", 0.1234567885}, {"b", 2.0}, {"c", null}},
+                new Object[][] {{"b", 2.0000000001}, {"c", null}, {"a", 0.12345678849}});
+    }
+
+    @Test
+    public void testDoubleDiffers() throws DataSetException {
+        assertAgree(false,
+                new Object[][] {{"a", 1.0}, {"b", 2.0}},
+                new Object[][] {{"a", 3.5}, {"b", 2.0}});
+        assertAgree(false,
+                new Object[][] {{"a", 3.5}},
+                new Object[][] {{"a", 1.0}});
+    }
+
+    @Test
+    public void testRowDiffers() throws DataSetException {
+        assertAgree(false,
+                new Object[][] {{"a", 1.0}, {"b", 2.0}},
+                new Object[][] {{"a", 1.0}, {"c", 2.0}});
+        assertAgree(true,
+                new Object[][] {{"a", 1.0}, {"a", 1.0}, {"b", 2.0}},
+                new Object[][] {{"b", 2.0}, {"a", 1.0}, {"a", 1.0}});
+    }
+}